@@ -114,7 +114,7 @@ public class Jetwot {
                 if (newSearchTw.getTextTerms().size() >= 4) {
                     float maxJc = -1;
                     for (JTweet twInCache : tweetCache.values()) {
-                        float jcIndex = (float) TermCreateCommand.calcJaccardIndex(twInCache.getTextTerms(), newSearchTw.getTextTerms());
+                        float jcIndex = (float) TermCreateCommand.calcJaccardIndex(twInCache.getTermVector(), newSearchTw.getTermVector());
                         if (maxJc < jcIndex)
                             maxJc = jcIndex;
                     }
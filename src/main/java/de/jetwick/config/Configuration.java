@@ -74,6 +74,72 @@ public class Configuration {
         return Integer.parseInt(get(key, true));
     }
 
+    public int getTweetSearchIndexingThreads() {
+        String key = get("jetslide.twsearch.indexing.threads");
+        if (key == null)
+            return 1;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the number of bulk requests which are sent without waiting 
+     * for a response. 0 means synchronous bulk indexing.
+     */
+    public int getTweetSearchBulksInFlight() {
+        String key = get("jetslide.twsearch.bulks.inflight");
+        if (key == null)
+            return 0;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the preferred payload size of one bulk request in bytes. 
+     * 0 means a fixed batch size.
+     */
+    public long getTweetSearchBulkTargetBytes() {
+        String key = get("jetslide.twsearch.bulk.targetbytes");
+        if (key == null)
+            return 0;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return the maximal time in milliseconds a queued tweet should wait 
+     * until it is indexed. 0 means no limit.
+     */
+    public long getTweetSearchMaxLatency() {
+        String key = get("jetslide.twsearch.bulk.maxlatency");
+        if (key == null)
+            return 0;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return the directory of the queue log or null if queued tweets should
+     * not survive a restart
+     */
+    public String getTweetSearchQueueLogDir() {
+        return get("jetslide.twsearch.queuelog.dir");
+    }
+
+    /**
+     * @return the file where the state of the friend tweet producer is stored
+     * or null if the state should not survive a restart
+     */
+    public String getFriendsStateFile() {
+        return get("jetslide.friends.statefile");
+    }
+
+    /**
+     * @return the number of users whose friend tweets are fetched in parallel
+     */
+    public int getFriendsThreads() {
+        String key = get("jetslide.friends.threads");
+        if (key == null)
+            return 5;
+        return Integer.parseInt(key);
+    }
+
     public String getTweetSearchUrl() {
         String key = "jetslide.twsearch.url";
         return get(key, true);
@@ -154,6 +220,28 @@ public class Configuration {
         return Integer.parseInt(key);
     }
 
+    /**
+     * @return the file where the resolved urls are cached or null if the
+     * cache should not survive a restart
+     */
+    public String getUrlResolverCacheFile() {
+        return get("jetslide.urlresolver.cachefile");
+    }
+
+    public int getUrlResolverCacheSize() {
+        String key = get("jetslide.urlresolver.cachesize");
+        if (key == null)
+            return 100000;
+        return Integer.parseInt(key);
+    }
+
+    public int getUrlResolverMaxPerHost() {
+        String key = get("jetslide.urlresolver.maxperhost");
+        if (key == null)
+            return 2;
+        return Integer.parseInt(key);
+    }
+
     public int getUrlResolverTimeout() {
         String key = get("jetslide.urlresolver.timeout");
         if (key == null)
@@ -31,6 +31,9 @@ import de.jetwick.tw.TweetProducerViaSearch;
 import de.jetwick.tw.TwitterSearch;
 import de.jetwick.util.GenericUrlResolver;
 import de.jetwick.util.MaxBoundSet;
+import de.jetwick.util.UrlCache;
+import java.io.File;
+import java.io.IOException;
 import org.elasticsearch.client.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +90,16 @@ public class DefaultModule extends AbstractModule {
         final GenericUrlResolver urlResolver = new GenericUrlResolver(config.getUrlResolverQueueSize());
         urlResolver.setResolveThreads(config.getUrlResolverThreads());
         urlResolver.setResolveTimeout(config.getUrlResolverTimeout());
+        urlResolver.setMaxPerHost(config.getUrlResolverMaxPerHost());
+        String cacheFile = config.getUrlResolverCacheFile();
+        if (cacheFile != null) {
+            try {
+                urlResolver.setUrlCache(new UrlCache(new File(cacheFile)).
+                        setMaxSize(config.getUrlResolverCacheSize()).open());
+            } catch (IOException ex) {
+                logger.error("Cannot open url cache " + cacheFile, ex);
+            }
+        }
 //        urlResolver.setMaxQueueSize(config.getUrlResolverHelperQueueSize());        
         return urlResolver;
     }
@@ -146,20 +146,6 @@ public class JTag implements ElasticObject<JTag>, Serializable, Comparable<JTag>
             return false;
     }
 
-    public void optimizeQueryFrequency(int newTweets) {
-        // try to get 100 tweets per search        
-        if (newTweets == 0)
-            queryInterval *= 20;
-        else
-            queryInterval = (long) (20.0 / newTweets) * queryInterval;
-
-        // force at least 10 second
-        queryInterval = Math.max(queryInterval, 10 * 1001);
-
-        // force max 60 min
-        queryInterval = Math.min(queryInterval, 60 * 60 * 1001);
-    }
-
     public int getPages() {
         return pages;
     }
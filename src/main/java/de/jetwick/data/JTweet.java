@@ -18,6 +18,7 @@ package de.jetwick.data;
 import de.jetwick.tw.TweetDetector;
 import de.jetwick.tw.Twitter4JTweet;
 import de.jetwick.tw.cmd.StringFreqMap;
+import de.jetwick.tw.cmd.TermVector;
 import de.jetwick.util.Helper;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -68,6 +69,8 @@ public class JTweet implements ElasticObject<JTweet>, Serializable {
     private long inReplyTwitterId = -1L;
     private String location;
     private StringFreqMap textTerms = new StringFreqMap(8);
+    // compact copy of textTerms for comparisons
+    private transient TermVector termVector;
     private StringFreqMap languages = new StringFreqMap(4);
     private String language = TweetDetector.UNKNOWN_LANG;
     private int quality;
@@ -199,12 +202,27 @@ public class JTweet implements ElasticObject<JTweet>, Serializable {
         this.language = language;
     }
 
+    /**
+     * @return the text terms. Modified terms have to be set via setTextTerms
+     * to update the term vector.
+     */
     public StringFreqMap getTextTerms() {
         return textTerms;
     }
 
     public void setTextTerms(StringFreqMap textTerms) {
         this.textTerms = textTerms;
+        termVector = null;
+    }
+
+    /**
+     * @return the text terms for comparisons. It is cached until the terms
+     * are set via setTextTerms.
+     */
+    public TermVector getTermVector() {
+        if (termVector == null)
+            termVector = TermVector.create(textTerms);
+        return termVector;
     }
 
     public long getInReplyTwitterId() {
@@ -16,6 +16,7 @@
 package de.jetwick.data;
 
 import de.jetwick.snacktory.JResult;
+import de.jetwick.util.UrlNormalizer;
 import java.io.Serializable;
 
 /**
@@ -96,6 +97,13 @@ public class UrlEntry implements Serializable {
         return resolvedUrl;
     }
 
+    /**
+     * @return the canonical form of the resolved url to compare equivalent urls
+     */
+    public String getCanonicalUrl() {
+        return UrlNormalizer.normalize(resolvedUrl);
+    }
+
     public String getOriginalUrl(JTweet tw) {
         int l = tw.getText().length();
         if (getIndex() < l && getLastIndex() <= l)
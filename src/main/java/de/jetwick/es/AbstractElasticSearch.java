@@ -24,7 +24,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.lucene.search.Explanation;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
@@ -41,6 +43,9 @@ import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.count.CountResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -146,15 +151,21 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
         client.admin().cluster().health(new ClusterHealthRequest(name).waitForGreenStatus()).actionGet();
     }
 
-    public void executeForAll(AnyExecutor<T> any, int pageSize) {
+    /**
+     * @return false if the scan failed
+     */
+    public boolean executeForAll(AnyExecutor<T> any, int pageSize) {
         long keepTimeInMinutes = 60;
-        scanThis(any, QueryBuilders.matchAllQuery(), keepTimeInMinutes, pageSize);
+        return scanThis(any, QueryBuilders.matchAllQuery(), keepTimeInMinutes, pageSize);
     }
 
-    public void scanThis(AnyExecutor<T> any, QueryBuilder query,
+    /**
+     * @return false if the scan failed
+     */
+    public boolean scanThis(AnyExecutor<T> any, QueryBuilder query,
             long keepTimeInMinutes, int pageSize) {
         SearchRequestBuilder srb = client.prepareSearch(getIndexName()).
-                setQuery(query).setSize(pageSize).
+                setQuery(query).setSize(pageSize).setVersion(true).
                 setSearchType(SearchType.SCAN).
                 setScroll(TimeValue.timeValueMinutes(keepTimeInMinutes));
         SearchResponse rsp = srb.execute().actionGet();
@@ -173,8 +184,10 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
                     any.execute(t);
                 }
             }
+            return true;
         } catch (Exception ex) {
             logger.error("Cannot run scanThis", ex);
+            return false;
         }
     }
 
@@ -298,6 +311,49 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
         return list;
     }
 
+    /**
+     * Fetches the objects with the specified ids via multi get including their
+     * versions. The ids are split into chunks which are requested in parallel.
+     * 
+     * @return the existing objects
+     */
+    public List<T> findByIds(Collection<String> ids, String indexName) {
+        List<ListenableActionFuture<MultiGetResponse>> futures = new ArrayList<ListenableActionFuture<MultiGetResponse>>();
+        List<String> chunk = new ArrayList<String>(getMultiGetChunkSize());
+        for (String id : ids) {
+            chunk.add(id);
+            if (chunk.size() >= getMultiGetChunkSize()) {
+                futures.add(client.prepareMultiGet().add(indexName, getIndexType(), chunk).execute());
+                chunk = new ArrayList<String>(getMultiGetChunkSize());
+            }
+        }
+        if (!chunk.isEmpty())
+            futures.add(client.prepareMultiGet().add(indexName, getIndexType(), chunk).execute());
+
+        List<T> list = new ArrayList<T>(ids.size());
+        for (ListenableActionFuture<MultiGetResponse> future : futures) {
+            for (MultiGetItemResponse item : future.actionGet()) {
+                if (item.isFailed()) {
+                    logger.warn("Cannot get " + item.getId() + " " + item.getFailure().getMessage());
+                    continue;
+                }
+
+                GetResponse rsp = item.getResponse();
+                if (!rsp.isExists())
+                    continue;
+
+                T o = readDoc(rsp.getId(), rsp.getVersion(), rsp.getSource());
+                if (o != null)
+                    list.add(o);
+            }
+        }
+        return list;
+    }
+
+    protected int getMultiGetChunkSize() {
+        return 100;
+    }
+
     public abstract T readDoc(String idAsStr, long version, Map<String, Object> source);
 
     public abstract XContentBuilder createDoc(T tw) throws IOException;
@@ -399,6 +455,29 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
      */
     public Collection<Integer> bulkUpdate(Collection<T> objects, String indexName, boolean refresh, boolean enableVersioning) {
         // now using bulk API instead of feeding each doc separate with feedDoc
+        BulkRequestBuilder brb = createBulkRequest(objects, indexName, enableVersioning);
+        if (brb.numberOfActions() > 0) {
+            BulkResponse rsp = brb.execute().actionGet();
+            if (rsp.hasFailures())
+                return getFailedItemIds(rsp);
+
+            if (refresh)
+                refresh(indexName);
+        }
+
+        return Collections.emptyList();
+    }
+
+    protected BulkRequestBuilder createBulkRequest(Collection<T> objects, String indexName, boolean enableVersioning) {
+        return createBulkRequest(objects, indexName, enableVersioning, null);
+    }
+
+    /**
+     * @param sourceBytes if not null the payload size of the added documents 
+     * will be added to it
+     */
+    protected BulkRequestBuilder createBulkRequest(Collection<T> objects, String indexName, boolean enableVersioning,
+            AtomicLong sourceBytes) {
         BulkRequestBuilder brb = client.prepareBulk();
         // this works differently then the direct call to refresh!? maybe refresh is not async?
 //        brb.setRefresh(refresh);
@@ -416,27 +495,30 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
                     indexReq.version(o.getVersion());
 
                 brb.add(indexReq);
+                if (sourceBytes != null)
+                    sourceBytes.addAndGet(indexReq.underlyingSourceLength());
             } catch (IOException ex) {
                 logger.warn("Cannot add object:" + o + " to bulkIndexing action." + ex.getMessage());
             }
         }
-        if (brb.numberOfActions() > 0) {
-            BulkResponse rsp = brb.execute().actionGet();
-            if (rsp.hasFailures()) {
-                List<Integer> list = new ArrayList<Integer>(rsp.items().length);
-                for (BulkItemResponse br : rsp.items()) {                    
-                    if(br.isFailed()) {
-//                        logger.info("Error:" + br.failureMessage());
-                        list.add(br.itemId());
-                    }
-                }
-                return list;
+        return brb;
+    }
+
+    /**
+     * @return the id's of the failed objects (e.g. due to versioning)
+     */
+    public List<Integer> getFailedItemIds(BulkResponse rsp) {
+        if (!rsp.hasFailures())
+            return Collections.emptyList();
+
+        List<Integer> list = new ArrayList<Integer>(rsp.items().length);
+        for (BulkItemResponse br : rsp.items()) {                    
+            if(br.isFailed()) {
+//                logger.info("Error:" + br.failureMessage());
+                list.add(br.itemId());
             }
-            if (refresh)
-                refresh(indexName);
         }
-
-        return Collections.emptyList();
+        return list;
     }
 
     public void flush(String... indices) {
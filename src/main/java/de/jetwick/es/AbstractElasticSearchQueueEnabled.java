@@ -15,17 +15,29 @@
  */
 package de.jetwick.es;
 
-import de.jetwick.data.DbObject;
+import de.jetwick.data.ElasticObject;
 import de.jetwick.util.MyDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingDeque;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,22 +46,61 @@ import org.slf4j.LoggerFactory;
  * This class was necessary to properly support versioning, because
  * failed objects need to re-added but at a later time.
  * 
+ * Queued objects are indexed through a pipeline: one thread gathers batches
+ * from the todo queue, N worker threads enrich those batches in parallel
+ * (see enrichBatch) and one writer thread submits them (see writeBatch).
+ * The stages are connected via bounded queues. A batch is only enriched after
+ * all earlier batches with a common order key (see addOrderKeys) are written
+ * and acknowledged, because enrichBatch has to see those objects. Optionally
+ * the writer submits its bulk requests asynchronously with a limited number 
+ * of requests in flight.
+ * The batch size and the time to wait for a full batch can adapt to the 
+ * observed bulk requests (see AdaptiveBatcher). If a QueueLog is set queued
+ * and failed objects survive a restart.
+ * 
  * To be migrated into AbstractElasticSearch so that all data objects can support versioning
  * 
  * @author Peter Karich, jetwick_@_pannous_._info
  */
-public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
+public abstract class AbstractElasticSearchQueueEnabled<T extends ElasticObject<T>>
         extends AbstractElasticSearch<T> {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     protected int removeOlderThanMinutes = Integer.MAX_VALUE;
     private BlockingQueue<T> todoObjects;
-    private BlockingDeque<FailedObject<T>> failedObjects = new LinkedBlockingDeque<FailedObject<T>>();
+    // objects of todoObjects by id to coalesce duplicates while queueing
+    private final Map<String, T> queuedObjects = new ConcurrentHashMap<String, T>();
+    private final Object queuedLock = new Object();
+    private AtomicLong coalescedCount = new AtomicLong(0);
+    private volatile QueueLog queueLog;
+    // the sequence numbers of the log records of the queued objects, guarded by queuedLock
+    private final Map<T, List<Long>> loggedSeqs = new IdentityHashMap<T, List<Long>>();
+    // the ticket of the batch which is currently written, accessed from the writer only
+    private BatchTicket currentTicket;
+    // the gathered batches which are not yet written and acknowledged in gather order
+    private final LinkedList<BatchTicket> inFlightBatches = new LinkedList<BatchTicket>();
+    private DelayQueue<FailedObject<T>> failedObjects = new DelayQueue<FailedObject<T>>();
+    private long maxRetryDelay = 60 * 1000L;
+    private final Random random = new Random();
+    private BlockingQueue<Batch> batchQueue;
+    private BlockingQueue<Batch> writeQueue;
     private int bulkUpdateSize = 200;
     private transient long bulkIndexingWait = 3 * 1000L;
+    private final AdaptiveBatcher batcher = new AdaptiveBatcher(bulkUpdateSize, 10 * bulkIndexingWait);
+    private volatile int indexingThreads = 1;
+    private int maxBulksInFlight = 0;
+    private Semaphore bulksInFlight;
+    private final Object bulkWindowLock = new Object();
     private Thread todoObjectsThread;
     private Thread failedObjsThread;
+    private Thread writerThread;
+    private final List<Thread> workerThreads = new ArrayList<Thread>();
     private AtomicInteger todoCount = new AtomicInteger(0);
+    // objects which were queued but not yet written
+    private AtomicInteger pendingCount = new AtomicInteger(0);
+    private final StageCounter gatherCounter = new StageCounter("gather");
+    private final StageCounter enrichCounter = new StageCounter("enrich");
+    private final StageCounter writeCounter = new StageCounter("write");
 
     public AbstractElasticSearchQueueEnabled(String url) {
         super(url);
@@ -67,24 +118,121 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
 
     public void setBulkIndexingWait(long bulkIndexingWait) {
         this.bulkIndexingWait = bulkIndexingWait;
+        batcher.setLingerTime(10 * bulkIndexingWait);
     }
 
     @Override
     public void setTesting(boolean testing) {
         this.testing = testing;
         if (testing) {
-            bulkIndexingWait = 1;
+            setBulkIndexingWait(1);
         }
     }
 
     public void setBatchSize(int batchSize) {
         this.bulkUpdateSize = batchSize;
+        batcher.setBatchSize(batchSize);
+    }
+
+    /**
+     * Adapts the batch size to the observed bulk requests so that one bulk 
+     * request has approximately the specified payload size. 0 disables it.
+     */
+    public void setTargetBulkBytes(long bytes) {
+        batcher.setTargetBulkBytes(bytes);
+    }
+
+    /**
+     * Limits the batch size and the time to wait for more objects so that an
+     * object is indexed within the specified milliseconds. 0 disables it.
+     */
+    public void setMaxIndexingLatency(long millis) {
+        batcher.setMaxLatency(millis);
+    }
+
+    public AdaptiveBatcher getBatcher() {
+        return batcher;
+    }
+
+    /**
+     * Stores all queued and failed objects in the specified log until they
+     * are indexed. The objects of a previous run are queued again.
+     */
+    public void setQueueLog(QueueLog log) {
+        List<QueueLog.Record> records = log.replay();
+        queueLog = log;
+        List<T> queued = new ArrayList<T>();
+        List<Long> seqs = new ArrayList<Long>();
+        for (QueueLog.Record rec : records) {
+            // the log contains only objects which were appended by this queue
+            @SuppressWarnings("unchecked")
+            T o = (T) rec.getObject();
+            if (rec.getType() == QueueLog.FAILED)
+                getRawFailedObjects().offer(new FailedObject<T>(System.currentTimeMillis(), o, rec.getSeq(), 0));
+            else {
+                queued.add(o);
+                seqs.add(rec.getSeq());
+            }
+        }
+        if (!queued.isEmpty())
+            queueObjects(queued, seqs);
+    }
+
+    public QueueLog getQueueLog() {
+        return queueLog;
     }
 
     public int getBatchSize() {
         return bulkUpdateSize;
     }
 
+    /**
+     * Specifies the number of threads which enrich the gathered batches in
+     * parallel. Gathering and writing is always done from one thread.
+     */
+    public void setIndexingThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one indexing thread is necessary:" + threads);
+
+        indexingThreads = threads;
+        ensureWorkersStarted();
+    }
+
+    public int getIndexingThreads() {
+        return indexingThreads;
+    }
+
+    /**
+     * Enables asynchronous bulk indexing for writeObjects if bulks > 0. Then 
+     * the writer won't wait for the response of the cluster until the 
+     * specified number of bulk requests are in flight.
+     */
+    public synchronized void setMaxBulksInFlight(int bulks) {
+        if (bulksInFlight != null && bulksInFlight.availablePermits() != maxBulksInFlight)
+            throw new IllegalStateException("Cannot change bulk window while requests are in flight");
+
+        maxBulksInFlight = bulks;
+        if (bulks > 0)
+            bulksInFlight = new Semaphore(bulks);
+        else
+            bulksInFlight = null;
+    }
+
+    public int getMaxBulksInFlight() {
+        return maxBulksInFlight;
+    }
+
+    /**
+     * @return the number of asynchronous bulk requests waiting for a response
+     */
+    public int getBulksInFlight() {
+        Semaphore tmp = bulksInFlight;
+        if (tmp == null)
+            return 0;
+
+        return maxBulksInFlight - tmp.availablePermits();
+    }
+
     public void setRemoveOlderThanDays(int removeDays) {
         setRemoveOlderThanHours(removeDays * 24);
     }
@@ -97,18 +245,183 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
         return new MyDate().minusMinutes(removeOlderThanMinutes).castToHour();
     }
 
-    public abstract void innerAdd(T tw);
+    /**
+     * Prepares the specified batch before it will be written. This method
+     * is called from several worker threads at the same time.
+     * 
+     * @return the objects which should be passed to writeBatch
+     */
+    public abstract Collection<T> enrichBatch(Collection<T> batch) throws InterruptedException;
+
+    /**
+     * Writes the enriched objects. This method is called from one thread only.
+     */
+    public abstract void writeBatch(Collection<T> batch) throws InterruptedException;
 
-    public abstract void innerThreadMethod() throws InterruptedException;
+    /**
+     * Adds the keys of the specified object to keys. A batch is enriched
+     * only after the earlier batches with a common key are written.
+     */
+    protected void addOrderKeys(T o, Collection<String> keys) {
+        if (o.getId() != null)
+            keys.add(o.getId());
+    }
 
+    /**
+     * Queues the specified object again after getRetryDelay. If too many 
+     * objects failed the object is skipped.
+     */
     public void queueFailedObject(T o) {
-        getRawFailedObjects().offer(new FailedObject<T>(System.currentTimeMillis(), o));
+        if (getRawFailedObjects().size() >= getFailedObjectsSize()) {
+            logger.error("Failed objects are too many. Skipped:" + o);
+            return;
+        }
+
+        long seq = -1;
+        QueueLog log = queueLog;
+        if (log != null)
+            seq = log.append(QueueLog.FAILED, o);
+        getRawFailedObjects().offer(new FailedObject<T>(System.currentTimeMillis(), o, seq, getRetryDelay(o)));
+    }
+
+    /**
+     * @return how often the specified object failed before
+     */
+    protected int getRetries(T o) {
+        return 0;
+    }
+
+    /**
+     * Exponential backoff starting at 2 * bulkIndexingWait. The jitter avoids 
+     * that objects which failed together are retried together.
+     * 
+     * @return the time in milliseconds until the failed object is queued again
+     */
+    protected long getRetryDelay(T o) {
+        int retries = Math.min(getRetries(o), 20);
+        long delay = Math.min(maxRetryDelay, (bulkIndexingWait * 2) << retries);
+        long jitter;
+        synchronized (random) {
+            jitter = (long) (random.nextDouble() * (delay / 2 + 1));
+        }
+        return delay / 2 + jitter;
+    }
+
+    public void setMaxRetryDelay(long maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * Called for every object which couldn't be written e.g. due to a 
+     * version conflict. Might be called from a thread of the client.
+     */
+    protected void onFailedObject(T o) {
+        queueFailedObject(o);
+    }
+
+    /**
+     * Writes the specified objects via one bulk request. If asynchronous bulk indexing
+     * is enabled this method only blocks until the bulk window has a free slot.
+     * Failed objects are passed to onFailedObject.
+     */
+    protected void writeObjects(final List<T> objects, String indexName) throws InterruptedException {
+        final AtomicLong bytes = new AtomicLong(0);
+        final BulkRequestBuilder brb = createBulkRequest(objects, indexName, hasVersionSupport(), bytes);
+        if (brb.numberOfActions() == 0)
+            return;
+
+        final Semaphore window = bulksInFlight;
+        if (window == null) {
+            long start = System.currentTimeMillis();
+            BulkResponse rsp = brb.execute().actionGet();
+            batcher.onBulk(brb.numberOfActions(), bytes.get(), System.currentTimeMillis() - start);
+            for (Integer integ : getFailedItemIds(rsp)) {
+                onFailedObject(objects.get(integ));
+            }
+            return;
+        }
+
+        window.acquire();
+        // the batch is done after the response
+        final BatchTicket ticket = currentTicket;
+        if (ticket != null)
+            ticket.retain();
+        boolean submitted = false;
+        try {
+            final long start = System.currentTimeMillis();
+            brb.execute(new ActionListener<BulkResponse>() {
+
+                @Override
+                public void onResponse(BulkResponse rsp) {
+                    try {
+                        batcher.onBulk(brb.numberOfActions(), bytes.get(), System.currentTimeMillis() - start);
+                        for (Integer integ : getFailedItemIds(rsp)) {
+                            onFailedObject(objects.get(integ));
+                        }
+                    } finally {
+                        releaseBulk(window, ticket);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable ex) {
+                    try {
+                        logger.error("Bulk request with " + objects.size() + " objects failed", ex);
+                        for (T o : objects) {
+                            onFailedObject(o);
+                        }
+                    } finally {
+                        releaseBulk(window, ticket);
+                    }
+                }
+            });
+            submitted = true;
+        } finally {
+            if (!submitted)
+                releaseBulk(window, ticket);
+        }
+    }
+
+    private void releaseBulk(Semaphore window, BatchTicket ticket) {
+        if (ticket != null)
+            ticket.release();
+        window.release();
+        synchronized (bulkWindowLock) {
+            bulkWindowLock.notifyAll();
+        }
+        // now trigger refresh for tests
+        synchronized (getTodoObjects()) {
+            getTodoObjects().notifyAll();
+        }
+    }
+
+    /**
+     * Blocks while all bulk requests are in flight to avoid that producers fill 
+     * the queue faster than the cluster can index.
+     */
+    private void waitForBulkWindow() throws InterruptedException {
+        Semaphore window = bulksInFlight;
+        if (window == null)
+            return;
+
+        synchronized (bulkWindowLock) {
+            while (window.availablePermits() <= 0) {
+                bulkWindowLock.wait(bulkIndexingWait);
+            }
+        }
     }
 
     protected int getTodoObjectsSize() {
         return 1000;
     }
 
+    /**
+     * @return the capacity of the queues between gathering, enriching and writing
+     */
+    protected int getHandOffQueueSize() {
+        return 4;
+    }
+
     public synchronized BlockingQueue<T> getTodoObjects() {
         if (todoObjects == null)
             todoObjects = new LinkedBlockingDeque<T>(getTodoObjectsSize());
@@ -116,28 +429,123 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
         return todoObjects;
     }
 
-    private synchronized BlockingDeque<FailedObject<T>> getRawFailedObjects() {
+    /**
+     * @return the maximal number of failed objects waiting for a retry
+     */
+    protected int getFailedObjectsSize() {
+        return 10000;
+    }
+
+    private synchronized DelayQueue<FailedObject<T>> getRawFailedObjects() {
         if (failedObjects == null)
-            failedObjects = new LinkedBlockingDeque<FailedObject<T>>();
+            failedObjects = new DelayQueue<FailedObject<T>>();
 
         return failedObjects;
     }
 
+    private synchronized BlockingQueue<Batch> getBatchQueue() {
+        if (batchQueue == null)
+            batchQueue = new LinkedBlockingQueue<Batch>(getHandOffQueueSize());
+
+        return batchQueue;
+    }
+
+    private synchronized BlockingQueue<Batch> getWriteQueue() {
+        if (writeQueue == null)
+            writeQueue = new LinkedBlockingQueue<Batch>(getHandOffQueueSize());
+
+        return writeQueue;
+    }
+
+    /**
+     * Registers the gathered batch. Has to be called in gather order.
+     */
+    private BatchTicket registerBatch(List<T> batch) {
+        Set<String> keys = new HashSet<String>();
+        for (T o : batch) {
+            addOrderKeys(o, keys);
+        }
+        BatchTicket ticket = new BatchTicket(keys);
+        synchronized (inFlightBatches) {
+            inFlightBatches.add(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Blocks until all earlier batches with a common key are written and acknowledged.
+     */
+    private void awaitEarlierBatches(BatchTicket ticket) throws InterruptedException {
+        synchronized (inFlightBatches) {
+            while (hasEarlierBatch(ticket)) {
+                inFlightBatches.wait();
+            }
+        }
+    }
+
+    private boolean hasEarlierBatch(BatchTicket ticket) {
+        for (BatchTicket t : inFlightBatches) {
+            if (t == ticket)
+                return false;
+            if (t.overlaps(ticket))
+                return true;
+        }
+        return false;
+    }
+
+    private void finishBatch(BatchTicket ticket) {
+        synchronized (inFlightBatches) {
+            inFlightBatches.remove(ticket);
+            inFlightBatches.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of gathered batches which are not yet written and acknowledged
+     */
+    public int getBatchesInFlight() {
+        synchronized (inFlightBatches) {
+            return inFlightBatches.size();
+        }
+    }
+
+    public StageCounter getGatherCounter() {
+        return gatherCounter;
+    }
+
+    public StageCounter getEnrichCounter() {
+        return enrichCounter;
+    }
+
+    public StageCounter getWriteCounter() {
+        return writeCounter;
+    }
+
     public void queueObject(T o) {
         queueObjects(Collections.singletonList(o));
     }
 
-    public void queueObjects(Collection<T> objs) {        
-        todoCount.addAndGet(objs.size());
+    public void queueObjects(Collection<T> objs) {
+        queueObjects(objs, null);
+    }
+
+    /**
+     * @param seqs the sequence numbers of the already logged objects or null
+     */
+    private void queueObjects(Collection<T> objs, List<Long> seqs) {
+        List<T> newObjs = coalesceQueued(objs, seqs);
+        todoCount.addAndGet(newObjs.size());
+        pendingCount.addAndGet(newObjs.size());
         try {
             int cap = getTodoObjects().remainingCapacity();
             long start = System.currentTimeMillis();
-            for (T t : objs) {
+            waitForBulkWindow();
+            for (T t : newObjs) {
                 getTodoObjects().put(t);
             }
             float secs = (System.currentTimeMillis() - start) / 1000f;
             if (secs > 1) {
-                logger.error("ES too slow? Putting " + objs.size()
+                logger.error("ES too slow? Putting " + newObjs.size()
                         + " objects into queue took too long (" + secs + " secs)"
                         + " Capacity is:" + getTodoObjects().remainingCapacity()
                         + " and was before queueing:" + cap);
@@ -147,20 +555,103 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
         }
     }
 
-    void skipAlreadyQueued(Collection<T> newObjs, Collection<T> existing) {
-        // TODO PERFORMANCE use separate set which stores queued objects!
-        Iterator<T> iter = newObjs.iterator();
-        while (iter.hasNext()) {
-            T newT = iter.next();
-            for (T existingT : existing) {
-                if (existingT.equals(newT)) {
-                    // TODO
-//                    existingT.updateFrom(newT);
-                    iter.remove();
-                    break;
+    /**
+     * Merges objects which are already queued via updateFrom into the queued
+     * instance.
+     * 
+     * @return the objects which are not yet queued
+     */
+    List<T> coalesceQueued(Collection<T> objs, List<Long> seqs) {
+        List<T> newObjs = new ArrayList<T>(objs.size());
+        synchronized (queuedLock) {
+            int i = 0;
+            for (T t : objs) {
+                long seq = seqs == null ? -1 : seqs.get(i);
+                i++;
+                if (t.getId() == null) {
+                    log(t, t, seq);
+                    newObjs.add(t);
+                    continue;
+                }
+
+                T existing = queuedObjects.get(t.getId());
+                if (existing == null) {
+                    queuedObjects.put(t.getId(), t);
+                    log(t, t, seq);
+                    newObjs.add(t);
+                } else {
+                    if (existing != t)
+                        existing.updateFrom(t);
+                    log(existing, t, seq);
+                    coalescedCount.incrementAndGet();
                 }
             }
         }
+        return newObjs;
+    }
+
+    /**
+     * Appends o to the queue log if not already done and remembers the record 
+     * for the queued instance. 
+     */
+    private void log(T queued, T o, long seq) {
+        QueueLog log = queueLog;
+        if (log == null)
+            return;
+
+        if (seq < 0)
+            seq = log.append(QueueLog.QUEUED, o);
+
+        List<Long> list = loggedSeqs.get(queued);
+        if (list == null) {
+            list = new ArrayList<Long>(1);
+            loggedSeqs.put(queued, list);
+        }
+        list.add(seq);
+    }
+
+    /**
+     * @return the log records of the specified queued objects
+     */
+    private List<Long> releaseLogged(Collection<T> objs) {
+        List<Long> seqs = new ArrayList<Long>();
+        if (queueLog == null)
+            return seqs;
+
+        synchronized (queuedLock) {
+            for (T o : objs) {
+                List<Long> list = loggedSeqs.remove(o);
+                if (list != null)
+                    seqs.addAll(list);
+            }
+        }
+        return seqs;
+    }
+
+    private T takeQueued() throws InterruptedException {
+        T o = getTodoObjects().take();
+        if (o.getId() != null) {
+            // after this no updateFrom will touch o
+            synchronized (queuedLock) {
+                if (queuedObjects.get(o.getId()) == o)
+                    queuedObjects.remove(o.getId());
+            }
+        }
+        return o;
+    }
+
+    /**
+     * @return the queued object with the specified id or null if there is none
+     */
+    public T getQueuedObject(String id) {
+        return queuedObjects.get(id);
+    }
+
+    /**
+     * @return the number of objects which were merged into an already queued one
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
     }
 
     @Override
@@ -186,19 +677,20 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
                 public void run() {
                     while (true) {
                         try {
-                            FailedObject<T> oldestFailedObject = getRawFailedObjects().take();
-                            if (oldestFailedObject == null)
-                                break;
-
-                            long delta = oldestFailedObject.getQueuedTime() + bulkIndexingWait * 2 - System.currentTimeMillis();
-                            if (delta <= 0)
-                                queueObject(oldestFailedObject.getObject());
-                            else {
-                                if (!getRawFailedObjects().offerFirst(oldestFailedObject))
-                                    logger.error("Failed objects are too many skipped:" + oldestFailedObject.getObject());
-                                //System.out.println("delta " + delta + " failedObj:" + oldestFailedObject);
-                                Thread.sleep(delta + 10);
+                            // blocks until the first object is due
+                            List<FailedObject<T>> due = new ArrayList<FailedObject<T>>();
+                            due.add(getRawFailedObjects().take());
+                            getRawFailedObjects().drainTo(due, bulkUpdateSize - 1);
+                            List<T> objs = new ArrayList<T>(due.size());
+                            List<Long> seqs = new ArrayList<Long>();
+                            for (FailedObject<T> fo : due) {
+                                objs.add(fo.getObject());
+                                if (fo.getLogSeq() >= 0)
+                                    seqs.add(fo.getLogSeq());
                             }
+                            queueObjects(objs);
+                            if (!seqs.isEmpty())
+                                queueLog.done(seqs);
                         } catch (Exception ex) {
                             logger.error(getName() + " was interrupted!!", ex);
                             break;
@@ -212,37 +704,45 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
 
                 @Override
                 public void run() {
-                    logger.info(getName() + " started with batchSize " + bulkUpdateSize);
+                    logger.info(getName() + " started with batchSize " + bulkUpdateSize
+                            + " and " + indexingThreads + " indexing threads");
                     // force 'init'
                     getTodoObjects();
                     while (!isInterrupted()) {
                         try {
                             // use 'take' and this while loop to make sure that 
                             // all of the objects added via todoObjects.addAll 
-                            // will be updated in one batch (via innerThreadMethod)
-                            int counter = 0;
+                            // will be updated in one batch (via enrichBatch)
+                            List<T> batch = new ArrayList<T>();
+                            T obj = takeQueued();
+                            long start = System.currentTimeMillis();
+                            int size = batcher.getBatchSize();
                             while (true) {
-                                T obj = todoObjects.take();
-                                innerAdd(obj);
-                                counter++;
+                                batch.add(obj);
                                 if (todoCount.decrementAndGet() <= 0)
                                     break;
 
-                                if (counter >= bulkUpdateSize)
+                                if (batch.size() >= size)
                                     break;
-                            }
-                            innerThreadMethod();
 
-                            // now trigger refresh for tests
-                            synchronized (todoObjects) {
-                                todoObjects.notifyAll();
+                                obj = takeQueued();
                             }
+                            getBatchQueue().put(new Batch(batch, registerBatch(batch)));
+                            gatherCounter.add(batch.size(), System.currentTimeMillis() - start);
 
                             logger.info("Alive with entries:" + todoObjects.size() + " failedQueueSize:" + getRawFailedObjects().size()
-                                    + " updated:" + counter + " ... going to sleep");
+                                    + " coalesced:" + coalescedCount.get()
+                                    + " gathered:" + batch.size() + " ... going to sleep. "
+                                    + gatherCounter + ", " + enrichCounter + ", " + writeCounter + ", " + batcher);
 //                            logger.info("Failed:" + getRawFailedObjects());
-                            for (int i = 0; i < 10 && todoObjects.size() < bulkUpdateSize; i++) {
-                                Thread.sleep(bulkIndexingWait);
+                            // linger until a full batch is available
+                            long lingerEnd = System.currentTimeMillis() + batcher.getLingerTime(todoObjects.size());
+                            while (todoObjects.size() < batcher.getBatchSize()) {
+                                long delta = lingerEnd - System.currentTimeMillis();
+                                if (delta <= 0)
+                                    break;
+
+                                Thread.sleep(Math.min(delta, bulkIndexingWait));
                             }
                         } catch (Exception ex) {
                             logger.error(getName() + " was interrupted!!", ex);
@@ -254,6 +754,123 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
             };
             todoObjectsThread.start();
         }
+
+        ensureWorkersStarted();
+        ensureWriterStarted();
+    }
+
+    protected void ensureWorkersStarted() {
+        synchronized (workerThreads) {
+            for (int i = 0; i < indexingThreads; i++) {
+                if (i < workerThreads.size() && workerThreads.get(i).isAlive())
+                    continue;
+
+                Thread worker = createWorker(i);
+                if (i < workerThreads.size())
+                    workerThreads.set(i, worker);
+                else
+                    workerThreads.add(worker);
+                worker.start();
+            }
+        }
+    }
+
+    private Thread createWorker(final int index) {
+        return new Thread(getClass().getSimpleName() + "-Queue-Worker-" + index) {
+
+            @Override
+            public void run() {
+                // stop if the number of indexing threads was reduced
+                while (!isInterrupted() && index < indexingThreads) {
+                    Batch batch;
+                    try {
+                        batch = getBatchQueue().take();
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+
+                    try {
+                        awaitEarlierBatches(batch.getTicket());
+                        long start = System.currentTimeMillis();
+                        batch.setObjects(enrichBatch(batch.getQueued()));
+                        enrichCounter.add(batch.getQueuedCount(), System.currentTimeMillis() - start);
+                        getWriteQueue().put(batch);
+                    } catch (InterruptedException ex) {
+                        pendingCount.addAndGet(-batch.getQueuedCount());
+                        batch.getTicket().fail();
+                        break;
+                    } catch (Exception ex) {
+                        pendingCount.addAndGet(-batch.getQueuedCount());
+                        logger.error(getName() + " couldn't enrich batch with " + batch.getQueuedCount() + " entries", ex);
+                        retryBatch(batch.getTicket(), batch.getQueued());
+                    }
+                }
+                logger.info(getName() + " finished");
+            }
+        };
+    }
+
+    protected synchronized void ensureWriterStarted() {
+        if (writerThread != null && writerThread.isAlive())
+            return;
+
+        writerThread = new Thread(getClass().getSimpleName() + "-Queue-Writer") {
+
+            @Override
+            public void run() {
+                // force 'init'
+                getTodoObjects();
+                while (!isInterrupted()) {
+                    Batch batch;
+                    try {
+                        batch = getWriteQueue().take();
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+
+                    BatchTicket ticket = batch.getTicket();
+                    QueueLog log = queueLog;
+                    if (log != null)
+                        ticket.setLog(log, releaseLogged(batch.getQueued()));
+                    try {
+                        long start = System.currentTimeMillis();
+                        currentTicket = ticket;
+                        writeBatch(batch.getObjects());
+                        writeCounter.add(batch.getObjects().size(), System.currentTimeMillis() - start);
+                        ticket.release();
+                    } catch (InterruptedException ex) {
+                        ticket.fail();
+                        break;
+                    } catch (Exception ex) {
+                        logger.error(getName() + " couldn't write batch with " + batch.getObjects().size() + " entries", ex);
+                        retryBatch(ticket, batch.getObjects());
+                    } finally {
+                        currentTicket = null;
+                        pendingCount.addAndGet(-batch.getQueuedCount());
+                        // now trigger refresh for tests
+                        synchronized (todoObjects) {
+                            todoObjects.notifyAll();
+                        }
+                    }
+                }
+                logger.info(getName() + " finished");
+            }
+        };
+        writerThread.start();
+    }
+
+    /**
+     * Queues the objects of a failed batch again and releases the batch. The
+     * failed objects get new log records so that the records of the batch 
+     * are done and the log can be truncated.
+     */
+    private void retryBatch(BatchTicket ticket, Collection<T> objs) {
+        if (queueLog != null && !ticket.hasLog())
+            ticket.setLog(queueLog, releaseLogged(objs));
+        for (T o : objs) {
+            onFailedObject(o);
+        }
+        ticket.release();
     }
 
     public Collection<T> getFailedObjects() {
@@ -281,7 +898,7 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
                         todoObjects.wait(maxWaitTime);
                     else
                         todoObjects.wait();
-                } while (todoObjects.size() > 0);
+                } while (todoObjects.size() > 0 || pendingCount.get() > 0 || getBulksInFlight() > 0);
 
                 refresh();
                 return true;
@@ -296,5 +913,110 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
             todoObjectsThread.interrupt();
         if (failedObjsThread != null)
             failedObjsThread.interrupt();
+        synchronized (workerThreads) {
+            for (Thread worker : workerThreads) {
+                worker.interrupt();
+            }
+        }
+        if (writerThread != null)
+            writerThread.interrupt();
+        if (queueLog != null)
+            queueLog.sync();
+    }
+
+    private class Batch {
+
+        private final List<T> queued;
+        private final BatchTicket ticket;
+        private Collection<T> objects;
+
+        Batch(List<T> queued, BatchTicket ticket) {
+            this.queued = queued;
+            this.ticket = ticket;
+        }
+
+        BatchTicket getTicket() {
+            return ticket;
+        }
+
+        void setObjects(Collection<T> objects) {
+            this.objects = objects;
+        }
+
+        /**
+         * @return the objects taken from the todo queue for this batch
+         */
+        List<T> getQueued() {
+            return queued;
+        }
+
+        int getQueuedCount() {
+            return queued.size();
+        }
+
+        /**
+         * @return the enriched objects
+         */
+        Collection<T> getObjects() {
+            return objects;
+        }
+    }
+
+    /**
+     * Finishes a batch when it and all of its asynchronous bulk requests are
+     * done. Then the log records of the batch are marked as done and the 
+     * later batches with a common key can be enriched.
+     */
+    private class BatchTicket {
+
+        private final Set<String> keys;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private volatile boolean failed;
+        private QueueLog log;
+        private List<Long> seqs;
+
+        BatchTicket(Set<String> keys) {
+            this.keys = keys;
+        }
+
+        void setLog(QueueLog log, List<Long> seqs) {
+            this.log = log;
+            this.seqs = seqs;
+        }
+
+        boolean hasLog() {
+            return log != null;
+        }
+
+        boolean overlaps(BatchTicket other) {
+            Set<String> small = keys.size() < other.keys.size() ? keys : other.keys;
+            Set<String> big = small == keys ? other.keys : keys;
+            for (String key : small) {
+                if (big.contains(key))
+                    return true;
+            }
+            return false;
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        /**
+         * Releases the batch but keeps its log records for a replay e.g. on shutdown
+         */
+        void fail() {
+            failed = true;
+            release();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() != 0)
+                return;
+
+            if (log != null && !failed)
+                log.done(seqs);
+            finishBatch(this);
+        }
     }
 }
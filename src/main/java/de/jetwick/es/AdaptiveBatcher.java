@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+/**
+ * Determines the size of the next indexing batch and how long to wait for
+ * more objects before the batch is sent.
+ *
+ * Without a target payload size and without a maximal latency the fixed
+ * batch size and linger time are used. Otherwise the observed bytes and
+ * milliseconds per object of the recent bulk requests are used to size the
+ * batch so that the bulk payload is near the target and the indexing of
+ * one batch stays within the maximal latency.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AdaptiveBatcher {
+
+    // weight of the latest observation in the moving averages
+    private static final double ALPHA = 0.3;
+    private int batchSize;
+    private long lingerTime;
+    private int minBatchSize = 10;
+    private int maxBatchSize = 1000;
+    private long targetBulkBytes = 0;
+    private long maxLatency = 0;
+    private double bytesPerObject = -1;
+    private double millisPerObject = -1;
+
+    public AdaptiveBatcher(int batchSize, long lingerTime) {
+        this.batchSize = batchSize;
+        this.lingerTime = lingerTime;
+    }
+
+    public synchronized AdaptiveBatcher setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param lingerTime the maximal time in milliseconds to wait for more objects
+     */
+    public synchronized AdaptiveBatcher setLingerTime(long lingerTime) {
+        this.lingerTime = lingerTime;
+        return this;
+    }
+
+    public synchronized AdaptiveBatcher setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+        return this;
+    }
+
+    public synchronized AdaptiveBatcher setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * @param bytes the preferred payload size of one bulk request. 0 disables it.
+     */
+    public synchronized AdaptiveBatcher setTargetBulkBytes(long bytes) {
+        this.targetBulkBytes = bytes;
+        return this;
+    }
+
+    /**
+     * @param maxLatency the maximal time in milliseconds an object should
+     * wait in a batch plus the time to index it. 0 disables it.
+     */
+    public synchronized AdaptiveBatcher setMaxLatency(long maxLatency) {
+        this.maxLatency = maxLatency;
+        return this;
+    }
+
+    public synchronized boolean isAdaptive() {
+        return targetBulkBytes > 0 || maxLatency > 0;
+    }
+
+    /**
+     * Feeds the statistics of a finished bulk request.
+     */
+    public synchronized void onBulk(int objects, long bytes, long millis) {
+        if (objects <= 0)
+            return;
+
+        bytesPerObject = average(bytesPerObject, (double) bytes / objects);
+        millisPerObject = average(millisPerObject, (double) millis / objects);
+    }
+
+    private static double average(double old, double val) {
+        if (old < 0)
+            return val;
+
+        return ALPHA * val + (1 - ALPHA) * old;
+    }
+
+    /**
+     * @return the maximal number of objects the next batch should contain
+     */
+    public synchronized int getBatchSize() {
+        if (!isAdaptive())
+            return batchSize;
+
+        int size = batchSize;
+        if (targetBulkBytes > 0 && bytesPerObject > 0)
+            size = (int) (targetBulkBytes / bytesPerObject);
+
+        if (maxLatency > 0 && millisPerObject > 0)
+            size = Math.min(size, (int) (maxLatency / millisPerObject));
+
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+
+    /**
+     * @param queueDepth the number of objects waiting to be indexed
+     * @return the time in milliseconds to wait for more objects until the next
+     * batch is gathered
+     */
+    public synchronized long getLingerTime(int queueDepth) {
+        if (!isAdaptive())
+            return lingerTime;
+
+        int size = getBatchSize();
+        // a full batch is already waiting
+        if (queueDepth >= size)
+            return 0;
+
+        long budget = lingerTime;
+        if (maxLatency > 0) {
+            // the time the next batch needs to be indexed must not be spent with waiting
+            long bulkTime = millisPerObject > 0 ? Math.round(millisPerObject * size) : 0;
+            budget = Math.min(budget, Math.max(0, maxLatency - bulkTime));
+        }
+
+        // the fuller the queue the shorter we wait
+        return Math.round(budget * (1 - (double) queueDepth / size));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "batchSize:" + getBatchSize() + " bytesPerObject:" + Math.round(bytesPerObject)
+                + " millisPerObject:" + millisPerObject;
+    }
+}
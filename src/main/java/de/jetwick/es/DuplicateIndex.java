@@ -0,0 +1,197 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.tw.cmd.TermCreateCommand;
+import de.jetwick.tw.cmd.TermVector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Finds near duplicate tweets via MinHash signatures of their text terms and
+ * a locality sensitive hashing (LSH) band index. Only the candidates sharing
+ * at least one band are compared via the exact jaccard index.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class DuplicateIndex {
+
+    private static final int BANDS = 20;
+    private static final int ROWS = 3;
+    private static final long[] SEEDS = new long[BANDS * ROWS];
+
+    static {
+        Random rand = new Random(42);
+        for (int i = 0; i < SEEDS.length; i++) {
+            SEEDS[i] = rand.nextLong();
+        }
+    }
+    private final int maxSize;
+    private final long maxAge;
+    // insertion order is the order of the indexing time
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+    private final Map<Long, List<Entry>> buckets = new HashMap<Long, List<Entry>>();
+
+    /**
+     * @param maxAge in milliseconds. Entries are removed after this time and
+     * only tweets created within this time are returned.
+     */
+    public DuplicateIndex(int maxSize, long maxAge) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Adds the tweet with its current text terms
+     */
+    public void add(JTweet tw) {
+        add(tw.getTwitterId(), tw.getCreatedAt().getTime(), tw.getTermVector());
+    }
+
+    public synchronized void add(long twitterId, long createdAt, TermVector terms) {
+        remove(entries.remove(twitterId));
+        Entry e = new Entry(twitterId, createdAt, terms, createBandKeys(terms));
+        entries.put(twitterId, e);
+        for (long key : e.bandKeys) {
+            List<Entry> list = buckets.get(key);
+            if (list == null) {
+                list = new ArrayList<Entry>(2);
+                buckets.put(key, list);
+            }
+            list.add(e);
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Entry o = iter.next();
+            if (entries.size() <= maxSize && now - o.time <= maxAge)
+                break;
+
+            iter.remove();
+            remove(o);
+        }
+    }
+
+    private void remove(Entry e) {
+        if (e == null)
+            return;
+
+        for (long key : e.bandKeys) {
+            List<Entry> list = buckets.get(key);
+            if (list == null)
+                continue;
+
+            list.remove(e);
+            if (list.isEmpty())
+                buckets.remove(key);
+        }
+    }
+
+    /**
+     * @return the ids of all other tweets created not after maxCreatedAt where
+     * the jaccard index of the terms is at least minJaccard
+     */
+    public List<Long> findSimilar(JTweet tw, long maxCreatedAt, double minJaccard) {
+        return findSimilar(tw.getTwitterId(), maxCreatedAt, tw.getTermVector(), minJaccard);
+    }
+
+    public synchronized List<Long> findSimilar(long twitterId, long maxCreatedAt,
+            TermVector terms, double minJaccard) {
+        Set<Entry> candidates = new LinkedHashSet<Entry>();
+        for (long key : createBandKeys(terms)) {
+            List<Entry> list = buckets.get(key);
+            if (list != null)
+                candidates.addAll(list);
+        }
+
+        long minCreatedAt = System.currentTimeMillis() - maxAge;
+        List<Long> res = new ArrayList<Long>();
+        for (Entry e : candidates) {
+            if (e.twitterId == twitterId || e.createdAt > maxCreatedAt || e.createdAt < minCreatedAt)
+                continue;
+
+            if (TermCreateCommand.calcJaccardIndex(terms, e.terms) >= minJaccard)
+                res.add(e.twitterId);
+        }
+        return res;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    static long[] createBandKeys(TermVector terms) {
+        long[] signature = new long[SEEDS.length];
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = Long.MAX_VALUE;
+        }
+        for (int t = 0; t < terms.size(); t++) {
+            long hash = terms.getId(t);
+            for (int i = 0; i < signature.length; i++) {
+                long h = mix(hash ^ SEEDS[i]);
+                if (h < signature[i])
+                    signature[i] = h;
+            }
+        }
+
+        long[] keys = new long[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long key = band;
+            for (int row = 0; row < ROWS; row++) {
+                key = key * 31 + signature[band * ROWS + row];
+            }
+            keys[band] = mix(key);
+        }
+        return keys;
+    }
+
+    /**
+     * the 64 bit finalizer of MurmurHash3
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static class Entry {
+
+        final long twitterId;
+        final long createdAt;
+        final long time = System.currentTimeMillis();
+        final TermVector terms;
+        final long[] bandKeys;
+
+        Entry(long twitterId, long createdAt, TermVector terms, long[] bandKeys) {
+            this.twitterId = twitterId;
+            this.createdAt = createdAt;
+            this.terms = terms;
+            this.bandKeys = bandKeys;
+        }
+    }
+}
@@ -24,18 +24,21 @@ import de.jetwick.data.UrlEntry;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
 import de.jetwick.tw.Extractor;
-import de.jetwick.tw.cmd.SerialCommandExecutor;
+import de.jetwick.tw.cmd.ParallelCommandExecutor;
 import de.jetwick.tw.cmd.TermCreateCommand;
+import de.jetwick.tw.cmd.UserProfileCache;
 import de.jetwick.util.AnyExecutor;
 import de.jetwick.util.Helper;
 import de.jetwick.util.MapEntry;
 import de.jetwick.util.StopWatch;
+import de.jetwick.util.UrlNormalizer;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -47,6 +50,8 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
@@ -94,6 +99,7 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     public static final String LANG = "lang";
     public static final String URL_COUNT = "url_i";
     public static final String FIRST_URL_TITLE = "dest_title_1_s";
+    public static final String FIRST_URL_CANONICAL = "canon_url_1_s";
     public static final String USER = "user";
     public static final String FILTER_NO_DUPS = DUP_COUNT + ":0";
     public static final String FILTER_ONLY_DUPS = DUP_COUNT + ":[1 TO *]";
@@ -104,9 +110,24 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     public static final String RELEVANCE = "relevance";
     public static final String _ID = "_id_";
     private String indexName = "twindex";
-    private List<AnyExecutor<JTweet>> commitListener = new ArrayList<AnyExecutor<JTweet>>(1);
+    private List<AnyExecutor<JTweet>> commitListener = new ArrayList<AnyExecutor<JTweet>>(2);
+    // originals of the last day to connect retweets without a query
+    private final RetweetOriginIndex retweetOrigins = new RetweetOriginIndex(200000, 24 * 3600 * 1000L);
+    // tweets of the last day to find duplicates without a query
+    private final DuplicateIndex duplicateIndex = new DuplicateIndex(200000, 24 * 3600 * 1000L);
+    private volatile boolean duplicateIndexFilled = false;
+    // ids and urls of the indexed tweets to avoid queries for not indexed ones
+    private final IndexedTweetFilter tweetFilter = new IndexedTweetFilter(OLDEST_DT_IN_MILLIS,
+            24 * 3600 * 1000L, 1000000, 0.01);
+    // the recent tweets per user for the spam detection of TermCreateCommand
+    private final UserProfileCache userProfiles = new UserProfileCache(10000, 20);
     private Logger logger = LoggerFactory.getLogger(getClass());
 
+    {
+        commitListener.add(retweetOrigins);
+        commitListener.add(tweetFilter);
+    }
+
     public ElasticTweetSearch() {
     }
 
@@ -226,6 +247,7 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             b.field("orig_url_" + counter + "_s", urlEntry.getOriginalUrl(tw));
             b.field("url_pos_" + counter + "_s", urlEntry.getIndex() + "," + urlEntry.getLastIndex());
             b.field("dest_url_" + counter + "_s", urlEntry.getResolvedUrl());
+            b.field("canon_url_" + counter + "_s", urlEntry.getCanonicalUrl());
             if (!Helper.isEmpty(urlEntry.getResolvedDomain()))
                 b.field("dest_domain_" + counter + "_s", urlEntry.getResolvedDomain());
 
@@ -464,26 +486,37 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
      * @return updated tweets
      */
     public Collection<JTweet> update(Collection<JTweet> tmpTweets, Date removeUntil, boolean performDelete) {
+        Collection<JTweet> updateTweets = enrich(tmpTweets, removeUntil);
+        store(updateTweets, false);
+
+        // We are not receiving the deleted tweets! but do we need to
+        // store the tweets where this deleted tweet was a retweet?
+        // No. Because "userA: text" and "userB: RT @usera: text" now the second tweet is always AFTER the first!
+        if (performDelete)
+            deleteUntil(removeUntil);
+
+        return updateTweets;
+    }
+
+    /**
+     * Connects the specified tweets with its replies, retweets and duplicates 
+     * and creates the terms of all tweets which needs to be updated. 
+     * Nothing is stored.
+     * 
+     * @return the tweets which should be stored
+     */
+    public Collection<JTweet> enrich(Collection<JTweet> tmpTweets, Date removeUntil) {
+        replyChecks.set(new HashMap<String, Boolean>());
         try {
             Map<String, JUser> usersMap = new LinkedHashMap<String, JUser>();
             Map<Long, JTweet> existingTweets = new LinkedHashMap<Long, JTweet>();
-            StringBuilder idStr = new StringBuilder();
-            int counts = 0;
-            // we can add max ~150 tweets per request (otherwise the webcontainer won't handle the long request)
+            Set<String> ids = new LinkedHashSet<String>();
             for (JTweet tw : tmpTweets) {
-                if (counts > 0)
-                    idStr.append(" OR ");
-                counts++;
-                idStr.append(tw.getTwitterId());
+                ids.add(tw.getId());
             }
 
             // get existing tweets and users                
-            JetwickQuery query = new TweetQuery().addFilterQuery(_ID + getIndexType(), idStr.toString()).setSize(counts);
-            SearchResponse rsp = query(query);
-            SearchHits docs = rsp.getHits();
-
-            for (SearchHit sd : docs) {
-                JTweet tw = readDoc(sd.getId(), sd.getVersion(), sd.getSource());
+            for (JTweet tw : findByIds(ids, getIndexName())) {
                 existingTweets.put(tw.getTwitterId(), tw);
                 JUser u = tw.getFromUser();
                 JUser uOld = usersMap.get(u.getScreenName());
@@ -528,22 +561,21 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             // add the additionally fetched tweets to the user but do not add to updateTweets
             // this is a bit expensive ~30-40sec for every store call on a large index!
 //            fetchMoreTweets(twMap, usersMap);            
-            store(updateTweets, false);
-
-            // We are not receiving the deleted tweets! but do we need to
-            // store the tweets where this deleted tweet was a retweet?
-            // No. Because "userA: text" and "userB: RT @usera: text" now the second tweet is always AFTER the first!
-            if (performDelete) {
-                logger.info("Deleting tweets older than " + removeUntil);
-                deleteUntil(removeUntil);
-            }
+            if (updateTweets.isEmpty())
+                return updateTweets;
 
-            return updateTweets;
+            return new ParallelCommandExecutor(updateTweets).add(
+                    new TermCreateCommand().setSw1(sw1).setSw2(sw2).setSw3(sw3).setSw4(sw4).
+                    setProfiles(userProfiles)).execute();
         } catch (Exception ex) {
             throw new RuntimeException(ex);
+        } finally {
+            replyChecks.remove();
         }
     }
     private StopWatch sw1 = new StopWatch();
+    // the answered reply checks of the current enrich call
+    private final ThreadLocal<Map<String, Boolean>> replyChecks = new ThreadLocal<Map<String, Boolean>>();
     private StopWatch sw2 = new StopWatch();
     private StopWatch sw3 = new StopWatch();
     private StopWatch sw4 = new StopWatch();
@@ -553,24 +585,31 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             if (tweets.isEmpty())
                 return;
 
-            tweets = new SerialCommandExecutor(tweets).add(
-                    new TermCreateCommand().setSw1(sw1).setSw2(sw2).setSw3(sw3).setSw4(sw4)).execute();
-
             List<JTweet> list = new ArrayList<JTweet>(tweets);
             Collection<Integer> failedArticleIndices = bulkUpdate(list, getIndexName());
             for (Integer integ : failedArticleIndices) {
-                JTweet tw = list.get(integ);
-                tw.setUpdateCount(tw.getUpdateCount() + 1);
-                if (tw.getUpdateCount() > 10)
-                    logger.warn("PROBLEM: skipped tweet. it failed " + tw.getUpdateCount() + " times:" + tw);
-                else
-                    queueFailedObject(tw);
+                onFailedObject(list.get(integ));
             }
         } catch (Exception e) {
             logger.error("Exception while updating.", e);
         }
     }
 
+    @Override
+    protected void onFailedObject(JTweet tw) {
+        tw.setUpdateCount(tw.getUpdateCount() + 1);
+        if (tw.getUpdateCount() > 10)
+            logger.warn("PROBLEM: skipped tweet. it failed " + tw.getUpdateCount() + " times:" + tw);
+        else
+            queueFailedObject(tw);
+    }
+
+    @Override
+    protected int getRetries(JTweet tw) {
+        // updateCount was already increased in onFailedObject
+        return Math.max(0, tw.getUpdateCount() - 1);
+    }
+
     /**
      * For every user there should be at least 5 tweets to make spam detection
      * more efficient
@@ -608,6 +647,30 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         // 2. check if tweets contains retweets -> done for 'tweets' and for tweets in solr
 
         final Set<JTweet> updatedTweets = new LinkedHashSet<JTweet>();
+        // collect the retweets of local tweets to check them with one request
+        final List<JTweet[]> pairs = new ArrayList<JTweet[]>();
+        Extractor collector = new Extractor() {
+
+            @Override
+            public boolean onNewUser(int index, String user) {
+                if (index >= 3 && text.substring(index - 3, index).equalsIgnoreCase("rt ")) {
+                    JUser existingUser = userMap.get(user.toLowerCase());
+                    if (existingUser != null)
+                        for (JTweet tmp : existingUser.getOwnTweets()) {
+                            if (tmp.getCreatedAt().getTime() < tweet.getCreatedAt().getTime()
+                                    && tweet.isRetweetOf(tmp))
+                                pairs.add(new JTweet[]{tmp, tweet});
+                        }
+                }
+                return true;
+            }
+        };
+        for (JTweet tw : tweets.values()) {
+            if (tw.isRetweet())
+                collector.setTweet(tw).run();
+        }
+        prefetchReplyChecks(pairs);
+
         Extractor extractor = new Extractor() {
 
             @Override
@@ -663,6 +726,13 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                 return null;
 
             try {
+                Long origId = retweetOrigins.get(toUserStr, tw.extractRTText());
+                if (origId != null) {
+                    JTweet tmp = findByTwitterId(origId);
+                    if (tmp != null && tw.isRetweetOf(tmp))
+                        return addReplyNoTricks(tmp, tw) ? tmp : null;
+                }
+
                 // connect retweets to tweets only searchTweetsDays old
                 SearchResponse rsp = query(new TweetQuery(JetwickQuery.escapeQuery(tw.extractRTText())).addFilterQuery(USER, toUserStr).
                         addFilterQuery(IS_RT, false).
@@ -683,6 +753,58 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         return null;
     }
 
+    private static String createReplyCheckKey(JTweet orig, JTweet reply) {
+        return orig.getTwitterId() + " " + reply.getTwitterId() + " " + reply.getFromUser().getScreenName();
+    }
+
+    JetwickQuery createReplyCheckQuery(JTweet orig, JTweet reply) {
+        return new TweetQuery().addFilterQuery(INREPLY_ID, orig.getTwitterId()).
+                addFilterQuery("-" + _ID + getIndexType(), reply.getTwitterId()).
+                addFilterQuery("user", reply.getFromUser().getScreenName()).setSize(0);
+    }
+
+    /**
+     * Answers the index checks of addReplyNoTricks for the specified 
+     * (original, reply) pairs with one multi search request. Only used within 
+     * enrich where the answers are cached for the current batch.
+     */
+    void prefetchReplyChecks(Collection<JTweet[]> pairs) {
+        Map<String, Boolean> checks = replyChecks.get();
+        if (checks == null || pairs.isEmpty())
+            return;
+
+        MultiSearchRequestBuilder msrb = client.prepareMultiSearch();
+        Set<String> keys = new LinkedHashSet<String>();
+        for (JTweet[] pair : pairs) {
+            if (pair[0].getFromUser().equals(pair[1].getFromUser()))
+                continue;
+
+            String key = createReplyCheckKey(pair[0], pair[1]);
+            if (checks.containsKey(key) || !keys.add(key))
+                continue;
+
+            SearchRequestBuilder srb = createSearchBuilder();
+            createReplyCheckQuery(pair[0], pair[1]).initRequestBuilder(srb);
+            msrb.add(srb);
+        }
+
+        if (keys.isEmpty())
+            return;
+
+        try {
+            Iterator<String> iter = keys.iterator();
+            for (MultiSearchResponse.Item item : msrb.execute().actionGet()) {
+                String key = iter.next();
+                if (item.isFailure())
+                    logger.warn("reply check failed for " + key + " " + item.getFailureMessage());
+                else
+                    checks.put(key, item.getResponse().getHits().getTotalHits() > 0);
+            }
+        } catch (Exception ex) {
+            logger.error("couldn't check " + keys.size() + " replies", ex);
+        }
+    }
+
     /**
      * Connect tweets via its inReplyId
      *
@@ -704,11 +826,23 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
     protected void findRepliesInBatch(Iterator<JTweet> iter, Map<Long, JTweet> origTweets,
             Map<Long, JTweet> replyIdToTweetMap, Collection<JTweet> updatedTweets) {
-        int counter = 0;
-        StringBuilder idStr = new StringBuilder();
-        StringBuilder replyIdStr = new StringBuilder();
+        List<JTweet> list = new ArrayList<JTweet>();
+        List<JTweet[]> pairs = new ArrayList<JTweet[]>();
         while (iter.hasNext()) {
             JTweet tw = iter.next();
+            list.add(tw);
+            JTweet tmp = replyIdToTweetMap.get(tw.getTwitterId());
+            if (tmp != null)
+                pairs.add(new JTweet[]{tw, tmp});
+            tmp = origTweets.get(tw.getInReplyTwitterId());
+            if (tmp != null && !JTweet.isDefaultInReplyId(tw.getInReplyTwitterId()))
+                pairs.add(new JTweet[]{tmp, tw});
+        }
+        prefetchReplyChecks(pairs);
+
+        Set<String> origIds = new LinkedHashSet<String>();
+        StringBuilder replyIdStr = new StringBuilder();
+        for (JTweet tw : list) {
             JTweet tmp = replyIdToTweetMap.get(tw.getTwitterId());
             if (tmp != null) {
                 if (addReplyNoTricks(tw, tmp)) {
@@ -731,13 +865,8 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                     updatedTweets.add(tw);
                     updatedTweets.add(tmp);
                 }
-            } else {
-                counter++;
-                if (idStr.length() > 0)
-                    idStr.append(" OR ");
-
-                idStr.append(tw.getInReplyTwitterId());
-            }
+            } else
+                origIds.add(Long.toString(tw.getInReplyTwitterId()));
         }
 
         try {
@@ -749,10 +878,8 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             }
 
             // get original tweets where we have replies            
-            if (idStr.length() > 0) {
-                JetwickQuery query = new TweetQuery().addFilterQuery(_ID + getIndexType(), idStr.toString()).setSize(counter);
-                selectOriginalTweetsWithReplies(query, origTweets.values(), updatedTweets);
-            }
+            if (!origIds.isEmpty())
+                selectOriginalTweetsWithReplies(origIds, origTweets.values(), updatedTweets);
         } catch (Exception ex) {
             logger.error("couldn't find replies in a batch query", ex);
         }
@@ -770,6 +897,14 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             replyMap.put(tw.getTwitterId(), tw);
         }
 
+        List<JTweet[]> pairs = new ArrayList<JTweet[]>();
+        for (JTweet inReplSolrTweet : replyMap.values()) {
+            JTweet origTw = tweets.get(inReplSolrTweet.getInReplyTwitterId());
+            if (origTw != null && !JTweet.isDefaultInReplyId(inReplSolrTweet.getInReplyTwitterId()))
+                pairs.add(new JTweet[]{origTw, inReplSolrTweet});
+        }
+        prefetchReplyChecks(pairs);
+
         for (JTweet inReplSolrTweet : replyMap.values()) {
             if (JTweet.isDefaultInReplyId(inReplSolrTweet.getInReplyTwitterId()))
                 continue;
@@ -781,27 +916,34 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         }
     }
 
-    protected void selectOriginalTweetsWithReplies(JetwickQuery query, Collection<JTweet> tweets,
+    protected void selectOriginalTweetsWithReplies(Collection<String> origIds, Collection<JTweet> tweets,
             Collection<JTweet> updatedTweets) {
 
-        SearchResponse rsp = query(query);
-        SearchHits docs = rsp.getHits();
         Map<Long, JTweet> origMap = new LinkedHashMap<Long, JTweet>();
-        for (SearchHit sd : docs) {
-            JTweet tw = readDoc(sd.getId(), sd.getVersion(), sd.getSource());
+        for (JTweet tw : findByIds(origIds, getIndexName())) {
             origMap.put(tw.getTwitterId(), tw);
         }
 
-        if (origMap.size() > 0)
-            for (JTweet inReplSolrTweet : tweets) {
-                if (JTweet.isDefaultInReplyId(inReplSolrTweet.getInReplyTwitterId()))
-                    continue;
-                JTweet origTw = origMap.get(inReplSolrTweet.getInReplyTwitterId());
-                if (origTw != null && addReplyNoTricks(origTw, inReplSolrTweet)) {
-                    updatedTweets.add(origTw);
-                    updatedTweets.add(inReplSolrTweet);
-                }
+        if (origMap.isEmpty())
+            return;
+
+        List<JTweet[]> pairs = new ArrayList<JTweet[]>();
+        for (JTweet inReplSolrTweet : tweets) {
+            JTweet origTw = origMap.get(inReplSolrTweet.getInReplyTwitterId());
+            if (origTw != null && !JTweet.isDefaultInReplyId(inReplSolrTweet.getInReplyTwitterId()))
+                pairs.add(new JTweet[]{origTw, inReplSolrTweet});
+        }
+        prefetchReplyChecks(pairs);
+
+        for (JTweet inReplSolrTweet : tweets) {
+            if (JTweet.isDefaultInReplyId(inReplSolrTweet.getInReplyTwitterId()))
+                continue;
+            JTweet origTw = origMap.get(inReplSolrTweet.getInReplyTwitterId());
+            if (origTw != null && addReplyNoTricks(origTw, inReplSolrTweet)) {
+                updatedTweets.add(origTw);
+                updatedTweets.add(inReplSolrTweet);
             }
+        }
     }
 
     public boolean addReplyNoTricks(JTweet orig, JTweet reply) {
@@ -810,10 +952,15 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
         try {
             // ensure that reply.user has not already a tweet in orig.replies   
-            JetwickQuery q = new TweetQuery().addFilterQuery(INREPLY_ID, orig.getTwitterId()).
-                    addFilterQuery("-" + _ID + getIndexType(), reply.getTwitterId()).
-                    addFilterQuery("user", reply.getFromUser().getScreenName());
-            if (query(q).getHits().getTotalHits() > 0)
+            Map<String, Boolean> checks = replyChecks.get();
+            String key = createReplyCheckKey(orig, reply);
+            Boolean exists = checks == null ? null : checks.get(key);
+            if (exists == null) {
+                exists = query(createReplyCheckQuery(orig, reply)).getHits().getTotalHits() > 0;
+                if (checks != null)
+                    checks.put(key, exists);
+            }
+            if (exists)
                 return false;
 
             orig.addReply(reply);
@@ -834,6 +981,40 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             commitListener.add(exec);
     }
 
+    public RetweetOriginIndex getRetweetOrigins() {
+        return retweetOrigins;
+    }
+
+    public DuplicateIndex getDuplicateIndex() {
+        return duplicateIndex;
+    }
+
+    public IndexedTweetFilter getTweetFilter() {
+        return tweetFilter;
+    }
+
+    /**
+     * Adds the tweets which are not too old to the tweet filter so that it
+     * can be used directly after a restart.
+     */
+    public void fillTweetFilter(int pageSize) {
+        final long now = System.currentTimeMillis();
+        AnyExecutor<JTweet> exec = new AnyExecutor<JTweet>() {
+
+            @Override
+            public JTweet execute(JTweet tw) {
+                tweetFilter.add(tw, now);
+                return tw;
+            }
+        };
+        RangeFilterBuilder recentFilter = FilterBuilders.rangeFilter(DATE).
+                gte(new Date(now - OLDEST_DT_IN_MILLIS));
+        if (scanThis(exec, QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), recentFilter), 60, pageSize)) {
+            tweetFilter.setComplete();
+            logger.info("Filled tweet filter with " + tweetFilter.sizeInBytes() + " bytes");
+        }
+    }
+
     public void removeListener(AnyExecutor<JTweet> exec) {
         commitListener.remove(exec);
     }
@@ -1006,52 +1187,90 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         final Set<JTweet> updatedTweets = new LinkedHashSet<JTweet>();
         TermCreateCommand termCommand = new TermCreateCommand();
         double JACC_BORDER = 0.7;
-        for (JTweet currentTweet : tweets.values()) {
-            if (currentTweet.isRetweet())
+        // less than 3 terms cannot reach the border against 3 or more terms
+        List<JTweet> candidates = new ArrayList<JTweet>();
+        DuplicateIndex batchIndex = new DuplicateIndex(Integer.MAX_VALUE, Long.MAX_VALUE);
+        for (JTweet tw : tweets.values()) {
+            if (tw.isRetweet())
                 continue;
 
-            JetwickQuery reqBuilder = new SimilarTweetQuery(currentTweet, false).addLatestDateFilter(24);
-            if (currentTweet.getTextTerms().size() < 3)
+            termCommand.calcTermsWithoutNoise(tw);
+            if (tw.getTextTerms().size() < 3)
                 continue;
 
-            int dups = 0;
-            try {
-                // find dups in index
-                for (JTweet simTweet : collectObjects(query(reqBuilder))) {
-                    if (simTweet.getTwitterId().equals(currentTweet.getTwitterId()))
-                        continue;
+            candidates.add(tw);
+            batchIndex.add(tw);
+        }
 
-                    termCommand.calcTermsWithoutNoise(simTweet);
-                    if (TermCreateCommand.calcJaccardIndex(currentTweet.getTextTerms(), simTweet.getTextTerms())
-                            >= JACC_BORDER) {
-                        currentTweet.addDuplicate(simTweet.getTwitterId());
-                        dups++;
-                    }
-                }
-            } catch (Exception ex) {
-                logger.error("Error while findDuplicate query execution", ex);
+        // the duplicate index knows only the tweets since the start until it is filled
+        boolean queryIndex = !duplicateIndexFilled;
+        for (JTweet currentTweet : candidates) {
+            // find dups in the tweets of the last 24 hours
+            for (Long id : duplicateIndex.findSimilar(currentTweet, Long.MAX_VALUE, JACC_BORDER)) {
+                currentTweet.addDuplicate(id);
             }
 
-            // find dups in tweets map
-            for (JTweet simTweet : tweets.values()) {
-                if (simTweet.getTwitterId().equals(currentTweet.getTwitterId()) || simTweet.isRetweet())
-                    continue;
+            if (queryIndex)
+                findDuplicatesInIndex(currentTweet, termCommand, JACC_BORDER);
 
-                if (currentTweet.getCreatedAt().getTime() < simTweet.getCreatedAt().getTime())
+            // find older dups in tweets map
+            for (Long id : batchIndex.findSimilar(currentTweet, currentTweet.getCreatedAt().getTime(), JACC_BORDER)) {
+                currentTweet.addDuplicate(id);
+            }
+        }
+
+        for (JTweet tw : candidates) {
+            duplicateIndex.add(tw);
+        }
+        return updatedTweets;
+    }
+
+    void findDuplicatesInIndex(JTweet currentTweet, TermCreateCommand termCommand, double jaccBorder) {
+        JetwickQuery reqBuilder = new SimilarTweetQuery(currentTweet, false).addLatestDateFilter(24);
+        try {
+            for (JTweet simTweet : collectObjects(query(reqBuilder))) {
+                if (simTweet.getTwitterId().equals(currentTweet.getTwitterId()))
                     continue;
 
                 termCommand.calcTermsWithoutNoise(simTweet);
                 if (TermCreateCommand.calcJaccardIndex(currentTweet.getTextTerms(), simTweet.getTextTerms())
-                        >= JACC_BORDER) {
+                        >= jaccBorder)
                     currentTweet.addDuplicate(simTweet.getTwitterId());
-                    dups++;
-                }
             }
+        } catch (Exception ex) {
+            logger.error("Error while findDuplicate query execution", ex);
+        }
+    }
+
+    /**
+     * Adds the tweets of the last 24 hours to the duplicate index. Until this
+     * is done findDuplicates queries the index.
+     */
+    public void fillDuplicateIndex(int pageSize) {
+        final TermCreateCommand termCommand = new TermCreateCommand();
+        AnyExecutor<JTweet> exec = new AnyExecutor<JTweet>() {
 
-//            tw.setDuplicates(dups);
+            @Override
+            public JTweet execute(JTweet tw) {
+                if (tw.isRetweet())
+                    return tw;
+
+                termCommand.calcTermsWithoutNoise(tw);
+                if (tw.getTextTerms().size() >= 3)
+                    duplicateIndex.add(tw);
+                return tw;
+            }
+        };
+        RangeFilterBuilder recentFilter = FilterBuilders.rangeFilter(DATE).
+                gte(new MyDate().minusHours(24).toDate());
+        if (scanThis(exec, QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), recentFilter), 60, pageSize)) {
+            duplicateIndexFilled = true;
+            logger.info("Filled duplicate index with " + duplicateIndex.size() + " tweets");
         }
+    }
 
-        return updatedTweets;
+    public boolean isDuplicateIndexFilled() {
+        return duplicateIndexFilled;
     }
 
     public SearchResponse updateSavedSearches(final Collection<SavedSearch> savedSearches) {
@@ -1183,11 +1402,9 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     SearchRequestBuilder createSearchBuilder(String indexName) {
         return client.prepareSearch(indexName).setTypes(getIndexType()).setVersion(true);
     }
-    private Map<String, JTweet> tweets = new LinkedHashMap<String, JTweet>(100);
     private StopWatch sw = new StopWatch();
     private int tweetCounter = 0;
     private AtomicInteger feededTweets = new AtomicInteger(0);
-    private Collection<JTweet> protectedTweets = new LinkedHashSet<JTweet>();
     private int feedCounter = 0;
 
     public int getFeededTweets() {
@@ -1195,26 +1412,67 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     }
 
     @Override
-    public void innerAdd(JTweet tw) {
-        // do not add protected tweets and add them only once
-        if (!tw.isProtected()) {
-            JTweet existingTweet = tweets.put(tw.getId(), tw);            
-            if (existingTweet != null) {
-                existingTweet.updateFrom(tw);                
-                tweets.put(existingTweet.getId(), existingTweet);
-            }
-        } else
-            protectedTweets.add(tw);
+    public Collection<JTweet> enrichBatch(Collection<JTweet> batch) {
+        Map<String, JTweet> tweets = new LinkedHashMap<String, JTweet>(batch.size());
+        Collection<JTweet> protectedTweets = new LinkedHashSet<JTweet>();
+        for (JTweet tw : batch) {
+            // do not add protected tweets and add them only once
+            if (!tw.isProtected()) {
+                JTweet existingTweet = tweets.put(tw.getId(), tw);
+                if (existingTweet != null) {
+                    existingTweet.updateFrom(tw);
+                    tweets.put(existingTweet.getId(), existingTweet);
+                }
+            } else
+                protectedTweets.add(tw);
+        }
+
+        Collection<JTweet> res = new ArrayList<JTweet>(enrich(tweets.values(), createRemoveOlderThan().toDate()));
+        res.addAll(protectedTweets);
+        return res;
     }
 
+    /**
+     * enrich connects a tweet with the tweets of its user, of the retweeted
+     * users and of the tweet it replies to. Those have to be written before.
+     */
     @Override
-    public void innerThreadMethod() throws InterruptedException {
+    protected void addOrderKeys(JTweet tw, final Collection<String> keys) {
+        keys.add(tw.getId());
+        keys.add("@" + tw.getFromUser().getScreenName().toLowerCase());
+        if (!JTweet.isDefaultInReplyId(tw.getInReplyTwitterId()))
+            keys.add(Long.toString(tw.getInReplyTwitterId()));
+
+        if (tw.isRetweet())
+            new Extractor() {
+
+                @Override
+                public boolean onNewUser(int index, String user) {
+                    if (index >= 3 && text.substring(index - 3, index).equalsIgnoreCase("rt "))
+                        keys.add("@" + user.toLowerCase());
+                    return true;
+                }
+            }.setTweet(tw).run();
+    }
+
+    @Override
+    public void writeBatch(Collection<JTweet> batch) throws InterruptedException {
         sw.start();
-        boolean delete = testing || feedCounter++ % 400 == 0;
-        // tweets can be updated from another thread (failed tweets)
-        Collection<JTweet> res = update(new ArrayList<JTweet>(tweets.values()), createRemoveOlderThan().toDate(), delete);
-        tweetCounter += res.size();
-        feededTweets.set(res.size());
+        // protected tweets are only passed to the listeners
+        List<JTweet> storeTweets = new ArrayList<JTweet>(batch.size());
+        for (JTweet tw : batch) {
+            if (!tw.isProtected())
+                storeTweets.add(tw);
+        }
+        // a failure is handled by the writer
+        if (!storeTweets.isEmpty())
+            writeObjects(storeTweets, getIndexName());
+
+        if (testing || feedCounter++ % 400 == 0)
+            deleteUntil(createRemoveOlderThan().toDate());
+
+        tweetCounter += storeTweets.size();
+        feededTweets.set(storeTweets.size());
         sw.stop();
         if (tweetCounter > getBatchSize()) {
             logger.info("Updated " + tweetCounter + " tweets "
@@ -1226,15 +1484,11 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             sw = new StopWatch();
         }
 
-        res.addAll(protectedTweets);
         for (AnyExecutor<JTweet> exec : commitListener) {
-            for (JTweet tw : res) {
+            for (JTweet tw : batch) {
                 exec.execute(tw);
             }
         }
-
-        protectedTweets.clear();
-        tweets.clear();
     }
 
     /**
@@ -1246,7 +1500,8 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         srb.setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
                 FilterBuilders.orFilter(
                     FilterBuilders.termFilter("dest_url_1_s", url),
-                    FilterBuilders.termFilter("orig_url_1_s", url))));
+                    FilterBuilders.termFilter("orig_url_1_s", url),
+                    FilterBuilders.termFilter(FIRST_URL_CANONICAL, UrlNormalizer.normalize(url)))));
         return collectObjects(srb.execute().actionGet());
     }
 
@@ -1254,11 +1509,4 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         return dt.getTime() < System.currentTimeMillis()
                 - ElasticTweetSearch.OLDEST_DT_IN_MILLIS;
     }
-
-    @Override
-    public void deleteAll(String indexName, String indexType) {
-        protectedTweets.clear();
-        tweets.clear();
-        super.deleteAll(indexName, indexType);
-    }        
 }
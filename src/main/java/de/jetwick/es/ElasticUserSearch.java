@@ -15,6 +15,7 @@
  */
 package de.jetwick.es;
 
+import de.jetwick.util.AnyExecutor;
 import de.jetwick.util.Helper;
 import org.elasticsearch.action.search.SearchResponse;
 import de.jetwick.config.Configuration;
@@ -63,6 +64,7 @@ public class ElasticUserSearch extends AbstractElasticSearch<JUser> {
     private static final String ACTIVE = "active";
     private static final String LAST_VISIT_DT = "lastVisit_dt";
     private static final String CREATED_DT = "createdAt_dt";
+    private static final String MODIFIED_DT = "modified_dt";
     private static final String TOPICS = "topics";
     private static final String TWITTER_ID = "twitterId";
     private static final String EMAIL = "email";
@@ -145,6 +147,8 @@ public class ElasticUserSearch extends AbstractElasticSearch<JUser> {
         b.field("friendsUpdate_dt", user.getLastFriendsUpdate());
         b.field("friends", Helper.toStringArray(user.getFriends()));
         b.field(LAST_VISIT_DT, user.getLastVisit());
+        // every write changes the user
+        b.field(MODIFIED_DT, new Date());
         b.field(EMAIL, user.getEmail());
         b.field(ACTIVE, user.isActive());
         b.field("role", user.getRole());
@@ -448,6 +452,17 @@ public class ElasticUserSearch extends AbstractElasticSearch<JUser> {
         termMinFrequency = tmf;
     }
 
+    /**
+     * Calls the executor for all users which were stored at or after the
+     * specified date
+     *
+     * @return false if the scan failed
+     */
+    public boolean executeForModified(AnyExecutor<JUser> any, Date since, int pageSize) {
+        return scanThis(any, QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                FilterBuilders.rangeFilter(MODIFIED_DT).gte(since)), 10, pageSize);
+    }
+
     public void searchLastLoggedIn(Set<JUser> users, int from, int size) {
         SearchRequestBuilder srb = createSearchBuilder();
         srb.setQuery(QueryBuilders.filteredQuery(
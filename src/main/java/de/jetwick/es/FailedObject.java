@@ -15,20 +15,40 @@
  */
 package de.jetwick.es;
 
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
 /**
- *
+ * A failed object which is due to be queued again after some delay.
+ * 
  * @author Peter Karich, jetwick_@_pannous_._info
  */
-public class FailedObject<T> {
+public class FailedObject<T> implements Delayed {
 
     private long queuedTime;
+    private long dueTime;
     private T object;
+    private long logSeq = -1;
 
     public FailedObject(long queuedTime, T o) {
         this.queuedTime = queuedTime;
+        this.dueTime = queuedTime;
         this.object = o;
     }
 
+    public FailedObject(long queuedTime, T o, long logSeq) {
+        this(queuedTime, o);
+        this.logSeq = logSeq;
+    }
+
+    /**
+     * @param delay the time in milliseconds after queuedTime when this object is due
+     */
+    public FailedObject(long queuedTime, T o, long logSeq, long delay) {
+        this(queuedTime, o, logSeq);
+        this.dueTime = queuedTime + delay;
+    }
+
     public T getObject() {
         return object;
     }
@@ -37,6 +57,34 @@ public class FailedObject<T> {
         return queuedTime;
     }
 
+    public long getDueTime() {
+        return dueTime;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+        long other = o instanceof FailedObject
+                ? ((FailedObject) o).dueTime
+                : System.currentTimeMillis() + o.getDelay(TimeUnit.MILLISECONDS);
+        if (dueTime < other)
+            return -1;
+        if (dueTime > other)
+            return 1;
+        return 0;
+    }
+
+    /**
+     * @return the sequence number of the record in the QueueLog or -1
+     */
+    public long getLogSeq() {
+        return logSeq;
+    }
+
     @Override
     public String toString() {
         return getQueuedTime() / 1000f + " " + object;
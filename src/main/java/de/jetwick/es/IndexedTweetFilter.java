@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.UrlEntry;
+import de.jetwick.util.AnyExecutor;
+import de.jetwick.util.Helper;
+import de.jetwick.util.UrlNormalizer;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.elasticsearch.common.bloom.BloomFilter;
+import org.elasticsearch.common.bloom.BloomFilterFactory;
+
+/**
+ * Remembers the twitter ids and urls of the indexed tweets in bloom filters
+ * so that the index has to be queried only if a tweet or url was maybe
+ * indexed. Every partition covers one day and the oldest partition is
+ * removed if the partitions cover more than the specified time. A full
+ * partition gets an additional bigger filter.
+ *
+ * As the filters only know the tweets indexed since the start, 'maybe' is
+ * returned until they cover the whole time or until they were filled
+ * via setComplete.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class IndexedTweetFilter implements AnyExecutor<JTweet> {
+
+    private final long partitionMillis;
+    private final int maxPartitions;
+    private final int expectedKeys;
+    private final double falsePositives;
+    // the newest partition is the last one
+    private final LinkedList<Partition> partitions = new LinkedList<Partition>();
+    private long completeSince;
+
+    /**
+     * @param maxAge in milliseconds e.g. ElasticTweetSearch.OLDEST_DT_IN_MILLIS
+     * @param expectedKeys the keys of one partition for the first filter
+     */
+    public IndexedTweetFilter(long maxAge, long partitionMillis, int expectedKeys, double falsePositives) {
+        this.partitionMillis = partitionMillis;
+        this.maxPartitions = (int) ((maxAge + partitionMillis - 1) / partitionMillis) + 1;
+        this.expectedKeys = expectedKeys;
+        this.falsePositives = falsePositives;
+        completeSince = System.currentTimeMillis() + maxAge;
+    }
+
+    /**
+     * Called for every indexed tweet.
+     */
+    @Override
+    public JTweet execute(JTweet tw) {
+        if (!tw.isProtected())
+            add(tw, System.currentTimeMillis());
+
+        return tw;
+    }
+
+    public synchronized void add(JTweet tw, long now) {
+        Partition p = getPartition(now);
+        p.add(createIdKey(tw.getTwitterId()));
+        for (UrlEntry ue : tw.getUrlEntries()) {
+            String url = ue.getOriginalUrl(tw);
+            if (!Helper.isEmpty(url))
+                p.add(createUrlKey(url));
+
+            url = ue.getResolvedUrl();
+            if (!Helper.isEmpty(url))
+                p.add(createUrlKey(url));
+        }
+    }
+
+    /**
+     * The filters know all indexed tweets e.g. after a scan over the index
+     */
+    public synchronized void setComplete() {
+        completeSince = 0;
+    }
+
+    public synchronized boolean isComplete(long now) {
+        return now >= completeSince;
+    }
+
+    /**
+     * @return false if the tweet is definitely not indexed
+     */
+    public boolean mightContainTweet(long twitterId) {
+        return mightContain(createIdKey(twitterId), System.currentTimeMillis());
+    }
+
+    /**
+     * @return false if no tweet with this original or resolved url is indexed
+     */
+    public boolean mightContainUrl(String url) {
+        return mightContain(createUrlKey(url), System.currentTimeMillis());
+    }
+
+    synchronized boolean mightContain(byte[] key, long now) {
+        if (!isComplete(now))
+            return true;
+
+        for (Partition p : partitions) {
+            if (p.mightContain(key))
+                return true;
+        }
+        return false;
+    }
+
+    public synchronized int getPartitions() {
+        return partitions.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        long bytes = 0;
+        for (Partition p : partitions) {
+            bytes += p.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private Partition getPartition(long now) {
+        if (partitions.isEmpty() || now - partitions.getLast().start >= partitionMillis) {
+            partitions.add(new Partition(now));
+            while (partitions.size() > maxPartitions) {
+                partitions.removeFirst();
+            }
+        }
+        return partitions.getLast();
+    }
+
+    static byte[] createIdKey(long twitterId) {
+        return toBytes("i" + twitterId);
+    }
+
+    static byte[] createUrlKey(String url) {
+        return toBytes("u" + UrlNormalizer.normalize(url));
+    }
+
+    static byte[] toBytes(String str) {
+        try {
+            return str.getBytes(Helper.UTF8);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private class Partition {
+
+        final long start;
+        final List<BloomFilter> filters = new ArrayList<BloomFilter>(2);
+        int capacity;
+        int keys;
+
+        Partition(long start) {
+            this.start = start;
+            capacity = expectedKeys;
+            filters.add(BloomFilterFactory.getFilter(capacity, falsePositives));
+        }
+
+        void add(byte[] key) {
+            if (keys >= capacity) {
+                // scale instead of increasing the false positives of the full filter
+                capacity *= 2;
+                keys = 0;
+                filters.add(BloomFilterFactory.getFilter(capacity, falsePositives));
+            }
+            filters.get(filters.size() - 1).add(key, 0, key.length);
+            keys++;
+        }
+
+        boolean mightContain(byte[] key) {
+            for (BloomFilter f : filters) {
+                if (f.isPresent(key, 0, key.length))
+                    return true;
+            }
+            return false;
+        }
+
+        long sizeInBytes() {
+            long bytes = 0;
+            for (BloomFilter f : filters) {
+                bytes += f.sizeInBytes();
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of queued objects stored in memory mapped segment files.
+ * Every record gets a sequence number which has to be marked as done when
+ * the object is safely indexed. A segment file is deleted if all of its
+ * records are done. Records which were not done will be returned from replay
+ * after a restart - at least once, i.e. a done record can be replayed if its
+ * segment still contained other records.
+ *
+ * The mapped buffers are forced to disc at most every syncInterval
+ * milliseconds. A crash of the JVM loses nothing, a crash of the OS the
+ * records of the last interval.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class QueueLog {
+
+    public static final byte QUEUED = 1;
+    public static final byte FAILED = 2;
+    private static final String PREFIX = "queue-";
+    private static final String SUFFIX = ".log";
+    // length, type and sequence number
+    private static final int HEADER = 4 + 1 + 8;
+    private Logger logger = LoggerFactory.getLogger(getClass());
+    private final File dir;
+    private final int segmentSize;
+    private final long syncInterval;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final TreeSet<Long> live = new TreeSet<Long>();
+    private Segment current;
+    private long nextSeq = 1;
+    private long lastSync = System.currentTimeMillis();
+    private boolean dirty = false;
+
+    public QueueLog(File dir) {
+        this(dir, 16 * 1024 * 1024, 1000);
+    }
+
+    /**
+     * @param syncInterval the maximal time in milliseconds before appended
+     * records are forced to disc. 0 forces every record.
+     */
+    public QueueLog(File dir, int segmentSize, long syncInterval) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncInterval = syncInterval;
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IllegalStateException("Cannot create queue log directory " + dir);
+    }
+
+    /**
+     * Reads all existing segments. Must be called before the first append.
+     * The returned records are still pending and need to be marked as done.
+     */
+    public synchronized List<Record> replay() {
+        if (current != null)
+            throw new IllegalStateException("Replay has to be done before appending");
+
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IllegalStateException("Cannot read queue log directory " + dir);
+
+        Arrays.sort(files);
+        List<Record> records = new ArrayList<Record>();
+        for (File f : files) {
+            if (!f.getName().startsWith(PREFIX) || !f.getName().endsWith(SUFFIX))
+                continue;
+
+            try {
+                Segment seg = new Segment(f, map(f, f.length()));
+                seg.firstSeq = nextSeq;
+                seg.lastSeq = nextSeq - 1;
+                read(seg, records);
+                segments.add(seg);
+            } catch (IOException ex) {
+                logger.error("Cannot read queue log segment " + f, ex);
+            }
+        }
+        truncate();
+        logger.info("Replayed " + records.size() + " records from queue log " + dir);
+        return records;
+    }
+
+    private void read(Segment seg, List<Record> records) {
+        MappedByteBuffer buf = seg.buffer;
+        while (buf.remaining() >= HEADER) {
+            int pos = buf.position();
+            int len = buf.getInt();
+            // a zero length marks the end, a torn record is skipped
+            if (len <= 0 || buf.remaining() < len + HEADER - 4)
+                break;
+
+            byte type = buf.get();
+            long seq = buf.getLong();
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            try {
+                Object o = new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+                records.add(new Record(seq, type, o));
+                live.add(seq);
+            } catch (Exception ex) {
+                logger.error("Skipped corrupt record " + seq + " at " + pos + " of " + seg.file, ex);
+            }
+            if (seg.lastSeq < seg.firstSeq)
+                seg.firstSeq = seq;
+            seg.lastSeq = seq;
+            nextSeq = Math.max(nextSeq, seq + 1);
+        }
+    }
+
+    /**
+     * @return the sequence number of the appended record
+     */
+    public synchronized long append(byte type, Object o) {
+        if (!(o instanceof Serializable))
+            throw new IllegalArgumentException("Object needs to be serializable:" + o);
+
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(o);
+            oos.close();
+            bytes = bos.toByteArray();
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot serialize " + o, ex);
+        }
+
+        long seq = nextSeq++;
+        if (current == null || current.buffer.remaining() < bytes.length + HEADER + 4)
+            roll(seq, bytes.length + HEADER + 4);
+
+        MappedByteBuffer buf = current.buffer;
+        int pos = buf.position();
+        buf.position(pos + 4);
+        buf.put(type);
+        buf.putLong(seq);
+        buf.put(bytes);
+        // write the length last so that a torn record is never read
+        buf.putInt(pos, bytes.length);
+        current.lastSeq = seq;
+        live.add(seq);
+        dirty = true;
+        syncIfNecessary();
+        return seq;
+    }
+
+    /**
+     * Marks the specified records as indexed so that their segments can be deleted.
+     */
+    public synchronized void done(Collection<Long> seqs) {
+        if (seqs.isEmpty())
+            return;
+
+        live.removeAll(seqs);
+        truncate();
+        syncIfNecessary();
+    }
+
+    public void done(long seq) {
+        done(Arrays.asList(seq));
+    }
+
+    /**
+     * @return the number of records which are not done
+     */
+    public synchronized int getPending() {
+        return live.size();
+    }
+
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    public synchronized void sync() {
+        if (dirty && current != null)
+            current.buffer.force();
+
+        dirty = false;
+        lastSync = System.currentTimeMillis();
+    }
+
+    private void syncIfNecessary() {
+        if (System.currentTimeMillis() - lastSync >= syncInterval)
+            sync();
+    }
+
+    public synchronized void close() {
+        sync();
+        segments.clear();
+        current = null;
+    }
+
+    private void roll(long seq, int minSize) {
+        if (current != null) {
+            current.buffer.force();
+            dirty = false;
+        }
+
+        File f = new File(dir, PREFIX + String.format("%019d", seq) + SUFFIX);
+        try {
+            current = new Segment(f, map(f, Math.max(segmentSize, minSize)));
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot create queue log segment " + f, ex);
+        }
+        current.firstSeq = seq;
+        current.lastSeq = seq - 1;
+        segments.add(current);
+        truncate();
+    }
+
+    private void truncate() {
+        long minLive = live.isEmpty() ? nextSeq : live.first();
+        Iterator<Segment> iter = segments.iterator();
+        while (iter.hasNext()) {
+            Segment seg = iter.next();
+            if (seg == current || seg.lastSeq >= minLive)
+                continue;
+
+            iter.remove();
+            if (!seg.file.delete())
+                logger.warn("Cannot delete queue log segment " + seg.file);
+        }
+    }
+
+    private static MappedByteBuffer map(File f, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (raf.length() < size)
+                raf.setLength(size);
+            // the mapping stays valid after closing the channel
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static class Segment {
+
+        final File file;
+        final MappedByteBuffer buffer;
+        long firstSeq;
+        long lastSeq;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    public static class Record {
+
+        private final long seq;
+        private final byte type;
+        private final Object object;
+
+        public Record(long seq, byte type, Object object) {
+            this.seq = seq;
+            this.type = type;
+            this.object = object;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public Object getObject() {
+            return object;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.util.AnyExecutor;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the ids of recently indexed original tweets by user and text so
+ * that a retweet can be connected to its original without a full text query.
+ * A hit has to be verified e.g. via JTweet.isRetweetOf because only the hash
+ * of the text is stored.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class RetweetOriginIndex implements AnyExecutor<JTweet> {
+
+    private final int maxSize;
+    private final long maxAge;
+    // insertion order is the order of the indexing time
+    private final Map<String, Origin> origins = new LinkedHashMap<String, Origin>();
+
+    /**
+     * @param maxAge in milliseconds
+     */
+    public RetweetOriginIndex(int maxSize, long maxAge) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Called for every indexed tweet.
+     */
+    @Override
+    public JTweet execute(JTweet tw) {
+        if (!tw.isRetweet() && tw.getFromUser() != null)
+            put(tw.getFromUser().getScreenName(), tw.getText(), tw.getTwitterId());
+
+        return tw;
+    }
+
+    public synchronized void put(String screenName, String text, long twitterId) {
+        String key = createKey(screenName, text);
+        long now = System.currentTimeMillis();
+        origins.remove(key);
+        origins.put(key, new Origin(twitterId, now));
+
+        Iterator<Origin> iter = origins.values().iterator();
+        while (iter.hasNext()) {
+            Origin o = iter.next();
+            if (origins.size() <= maxSize && now - o.time <= maxAge)
+                break;
+
+            iter.remove();
+        }
+    }
+
+    /**
+     * @return the twitter id of the original tweet or null if unknown
+     */
+    public synchronized Long get(String screenName, String text) {
+        Origin o = origins.get(createKey(screenName, text));
+        if (o == null || System.currentTimeMillis() - o.time > maxAge)
+            return null;
+
+        return o.twitterId;
+    }
+
+    public synchronized int size() {
+        return origins.size();
+    }
+
+    static String createKey(String screenName, String text) {
+        return screenName.toLowerCase() + " " + normalize(text).hashCode();
+    }
+
+    /**
+     * Lower cases the text and collapses white spaces
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    private static class Origin {
+
+        final long twitterId;
+        final long time;
+
+        Origin(long twitterId, long time) {
+            this.twitterId = twitterId;
+            this.time = time;
+        }
+    }
+}
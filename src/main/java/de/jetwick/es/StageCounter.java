@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe throughput counter of one stage of the indexing pipeline.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class StageCounter {
+
+    private final String name;
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong objects = new AtomicLong(0);
+    private final AtomicLong millis = new AtomicLong(0);
+
+    public StageCounter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param objectCount the number of processed objects
+     * @param time the time in milliseconds the stage needed to process them
+     */
+    public void add(int objectCount, long time) {
+        batches.incrementAndGet();
+        objects.addAndGet(objectCount);
+        millis.addAndGet(time);
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getObjects() {
+        return objects.get();
+    }
+
+    /**
+     * @return the accumulated time in milliseconds
+     */
+    public long getTime() {
+        return millis.get();
+    }
+
+    public float getObjectsPerSec() {
+        long time = millis.get();
+        if (time <= 0)
+            return 0;
+
+        return objects.get() * 1000f / time;
+    }
+
+    @Override
+    public String toString() {
+        return name + " batches:" + getBatches() + " objects:" + getObjects()
+                + " secs:" + getTime() / 1000f + " perSec:" + getObjectsPerSec();
+    }
+}
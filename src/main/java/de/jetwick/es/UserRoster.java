@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JUser;
+import de.jetwick.util.AnyExecutor;
+import de.jetwick.util.MyDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps all users of the user index in memory. After the first full scan
+ * only the users modified since the last refresh are fetched. Deleted users
+ * are removed with a full scan from time to time.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UserRoster {
+
+    // writes which were not visible (refresh) at the time of the last query
+    private static final long OVERLAP = 60 * 1000L;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ElasticUserSearch userSearch;
+    private final Map<String, JUser> users = new LinkedHashMap<String, JUser>();
+    private long fullRefreshInterval = 6 * MyDate.ONE_HOUR;
+    private long lastFullRefresh = -1;
+    private long lastRefresh = -1;
+    private int pageSize = 1000;
+
+    public UserRoster(ElasticUserSearch userSearch) {
+        this.userSearch = userSearch;
+    }
+
+    public UserRoster setFullRefreshInterval(long fullRefreshInterval) {
+        this.fullRefreshInterval = fullRefreshInterval;
+        return this;
+    }
+
+    /**
+     * Fetches the modified users or all users if a full scan is due. If the
+     * scan fails it is repeated with the next refresh.
+     *
+     * @return the number of fetched users
+     */
+    public synchronized int refresh() {
+        long start = System.currentTimeMillis();
+        final Map<String, JUser> fetched = new LinkedHashMap<String, JUser>();
+        AnyExecutor<JUser> exec = new AnyExecutor<JUser>() {
+
+            @Override
+            public JUser execute(JUser u) {
+                fetched.put(u.getScreenName(), u);
+                return u;
+            }
+        };
+
+        boolean ok;
+        if (lastFullRefresh < 0 || start - lastFullRefresh >= fullRefreshInterval) {
+            ok = userSearch.executeForAll(exec, pageSize);
+            // keep the users of the last scan if this one is incomplete
+            if (ok) {
+                users.clear();
+                lastFullRefresh = start;
+            }
+        } else
+            ok = userSearch.executeForModified(exec, new Date(lastRefresh - OVERLAP), pageSize);
+
+        users.putAll(fetched);
+        // fetch the changes again with the next refresh
+        if (ok)
+            lastRefresh = start;
+        else
+            logger.warn("Scan failed after " + fetched.size() + " users");
+        logger.info("Fetched " + fetched.size() + " users. Roster has " + users.size() + " users");
+        return fetched.size();
+    }
+
+    /**
+     * @return a copy of all users
+     */
+    public synchronized Collection<JUser> getUsers() {
+        return new ArrayList<JUser>(users.values());
+    }
+
+    /**
+     * @return the active users with a twitter token
+     */
+    public synchronized Collection<JUser> getActiveUsers() {
+        Collection<JUser> res = new ArrayList<JUser>();
+        for (JUser u : users.values()) {
+            if (u.isActive() && u.getTwitterToken() != null)
+                res.add(u);
+        }
+        return res;
+    }
+
+    public synchronized int size() {
+        return users.size();
+    }
+}
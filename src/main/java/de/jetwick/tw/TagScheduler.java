@@ -0,0 +1,236 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTag;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which tag should be searched next. Every tag is due after its
+ * query interval which is calculated from the floating mean of its new tweets
+ * per second. From the due tags the one with the most expected new tweets is
+ * taken. The searches are spread over the remaining API hits until the rate
+ * limit is reset.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class TagScheduler {
+
+    public static final long MIN_INTERVAL = 10 * 1000L;
+    public static final long MAX_INTERVAL = 60 * 60 * 1000L;
+    // spacing between two searches if the rate limit is unknown
+    private static final long DEFAULT_SPACING = 1000L;
+    private final Map<JTag, JTag> waiting = new LinkedHashMap<JTag, JTag>();
+    private final Set<JTag> running = new HashSet<JTag>();
+    // tags which cannot be tracked via the stream
+    private final Set<JTag> overflow = new LinkedHashSet<JTag>();
+    private int maxRunning = 3;
+    // weight of the latest search for the floating mean
+    private double alpha = 0.5;
+    // try to get so many new tweets per search
+    private int targetTweets = 20;
+    // hits which are kept for other API calls
+    private int reservedHits = 20;
+    private long spacing = DEFAULT_SPACING;
+    private long nextStart;
+
+    public TagScheduler setMaxRunning(int maxRunning) {
+        this.maxRunning = maxRunning;
+        return this;
+    }
+
+    public TagScheduler setAlpha(double alpha) {
+        this.alpha = alpha;
+        return this;
+    }
+
+    public TagScheduler setTargetTweets(int targetTweets) {
+        this.targetTweets = targetTweets;
+        return this;
+    }
+
+    public TagScheduler setReservedHits(int reservedHits) {
+        this.reservedHits = reservedHits;
+        return this;
+    }
+
+    /**
+     * Replaces the scheduled tags. The overflow tags stay scheduled and
+     * already scheduled tags keep their state.
+     */
+    public synchronized void setTags(Collection<JTag> tags) {
+        Map<JTag, JTag> tmp = new LinkedHashMap<JTag, JTag>();
+        keepWaiting(tmp, tags);
+        keepWaiting(tmp, overflow);
+        waiting.clear();
+        waiting.putAll(tmp);
+    }
+
+    private void keepWaiting(Map<JTag, JTag> tmp, Collection<JTag> tags) {
+        for (JTag tag : tags) {
+            if (running.contains(tag) || tmp.containsKey(tag))
+                continue;
+
+            JTag existing = waiting.get(tag);
+            tmp.put(tag, existing == null ? tag : existing);
+        }
+    }
+
+    /**
+     * Replaces the overflow tags and schedules them if not already done.
+     * Overflow tags are kept by setTags until they are replaced.
+     */
+    public synchronized void setOverflowTags(Collection<JTag> tags) {
+        overflow.clear();
+        overflow.addAll(tags);
+        for (JTag tag : tags) {
+            add(tag);
+        }
+    }
+
+    /**
+     * Schedules the tag if not already scheduled
+     */
+    public synchronized void add(JTag tag) {
+        if (!running.contains(tag) && !waiting.containsKey(tag))
+            waiting.put(tag, tag);
+    }
+
+    public synchronized int size() {
+        return waiting.size() + running.size();
+    }
+
+    public synchronized int getRunning() {
+        return running.size();
+    }
+
+    /**
+     * Spreads the searches over the remaining hits. Unknown values (negative)
+     * will use a default spacing.
+     */
+    public synchronized void setRateLimit(int remainingHits, int secondsUntilReset) {
+        if (remainingHits < 0 || secondsUntilReset < 0)
+            spacing = DEFAULT_SPACING;
+        else if (remainingHits <= reservedHits)
+            spacing = secondsUntilReset * 1000L;
+        else
+            spacing = secondsUntilReset * 1000L / (remainingHits - reservedHits);
+    }
+
+    public synchronized long getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Pauses all searches e.g. if the rate limit was exceeded
+     */
+    public synchronized void pause(long millis, long now) {
+        nextStart = Math.max(nextStart, now + millis);
+    }
+
+    /**
+     * @return the due tag with the most expected new tweets or null if no
+     * search should be started now. The tag has to be returned via update or failed.
+     */
+    public synchronized JTag poll(long now) {
+        if (running.size() >= maxRunning || now < nextStart)
+            return null;
+
+        JTag best = null;
+        double bestTweets = -1;
+        for (JTag tag : waiting.keySet()) {
+            if (getDue(tag) > now)
+                continue;
+
+            double tweets = getExpectedTweets(tag, now);
+            if (tweets > bestTweets) {
+                bestTweets = tweets;
+                best = tag;
+            }
+        }
+        if (best == null)
+            return null;
+
+        waiting.remove(best);
+        running.add(best);
+        nextStart = now + spacing;
+        return best;
+    }
+
+    /**
+     * @return the milliseconds until a search could be started
+     */
+    public synchronized long getWaitMillis(long now) {
+        if (running.size() >= maxRunning)
+            return DEFAULT_SPACING;
+
+        long due = Long.MAX_VALUE;
+        for (JTag tag : waiting.keySet()) {
+            due = Math.min(due, getDue(tag));
+        }
+        if (due == Long.MAX_VALUE)
+            return MAX_INTERVAL;
+
+        return Math.max(0, Math.max(due, nextStart) - now);
+    }
+
+    /**
+     * Updates the floating mean of new tweets per second and the query
+     * interval of the tag after the search and schedules it again.
+     *
+     * @param seconds the time since the previous search or 0 if unknown
+     */
+    public synchronized void update(JTag tag, int newTweets, double seconds) {
+        if (seconds > 0) {
+            double rate = newTweets / seconds;
+            tag.setTweetsPerSec(alpha * rate + (1 - alpha) * tag.getTweetsPerSec());
+        }
+
+        tag.setQueryInterval(calcInterval(tag.getTweetsPerSec()));
+        running.remove(tag);
+        waiting.put(tag, tag);
+    }
+
+    /**
+     * Schedules the tag again after the specified time
+     */
+    public synchronized void failed(JTag tag, long retryMillis, long now) {
+        tag.setQueryInterval(Math.max(0, now + retryMillis - tag.getLastMillis()));
+        running.remove(tag);
+        waiting.put(tag, tag);
+    }
+
+    long calcInterval(double tweetsPerSec) {
+        if (tweetsPerSec <= 0)
+            return MAX_INTERVAL;
+
+        double interval = 1000 * targetTweets / tweetsPerSec;
+        return (long) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    static long getDue(JTag tag) {
+        return tag.getLastMillis() + tag.getQueryInterval();
+    }
+
+    static double getExpectedTweets(JTag tag, long now) {
+        return tag.getTweetsPerSec() * (now - tag.getLastMillis()) / 1000.0;
+    }
+}
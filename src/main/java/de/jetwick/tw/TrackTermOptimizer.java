@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTag;
+import de.jetwick.util.Helper;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Selects the terms for the streaming API. A phrase is tracked by twitter if
+ * all of its words occur in a tweet, so a phrase like 'apache wicket' is
+ * removed if 'wicket' is tracked. The remaining terms are ranked by their
+ * expected tweets per second - preferable from the stream itself - and the
+ * best ones are used. The others should be fetched via search.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class TrackTermOptimizer {
+
+    /** maximal number of track terms of the streaming API */
+    public static final int MAX_TERMS = 400;
+    /** maximal length of one track term of the streaming API */
+    public static final int MAX_TERM_BYTES = 60;
+    // avoid the exponential subset check for very long phrases
+    private static final int MAX_WORDS = 10;
+    private int maxTerms = MAX_TERMS;
+    private List<String> trackTerms = Collections.emptyList();
+    private List<JTag> overflow = Collections.emptyList();
+    private int subsumed;
+
+    public TrackTermOptimizer setMaxTerms(int maxTerms) {
+        this.maxTerms = maxTerms;
+        return this;
+    }
+
+    /**
+     * @param termFreq the number of tweets per track term received from the
+     * stream within the last streamSeconds
+     */
+    public TrackTermOptimizer optimize(Collection<JTag> tags, Map<String, Integer> termFreq, double streamSeconds) {
+        Set<String> lastTrackTerms = new HashSet<String>(trackTerms);
+        Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+        for (JTag tag : tags) {
+            if (tag.getTerm() == null)
+                continue;
+
+            String term = tag.getTerm().trim();
+            String[] words = getWords(term);
+            if (words.length == 0)
+                continue;
+
+            String key = toKey(words, -1);
+            if (candidates.containsKey(key))
+                continue;
+
+            Candidate c = new Candidate(tag, term, words);
+            Integer counts = termFreq.get(term);
+            if (streamSeconds > 0 && (counts != null || lastTrackTerms.contains(term)))
+                c.tweetsPerSec = (counts == null ? 0 : counts) / streamSeconds;
+            else
+                c.tweetsPerSec = tag.getTweetsPerSec();
+            candidates.put(key, c);
+        }
+
+        subsumed = 0;
+        List<Candidate> ranked = new ArrayList<Candidate>(candidates.size());
+        List<JTag> tmpOverflow = new ArrayList<JTag>();
+        for (Candidate c : candidates.values()) {
+            if (isSubsumed(c.words, candidates))
+                subsumed++;
+            else if (getBytes(c.term) > MAX_TERM_BYTES)
+                tmpOverflow.add(c.tag);
+            else
+                ranked.add(c);
+        }
+
+        // stable: keep the order of the tags for equal rates
+        Collections.sort(ranked, new Comparator<Candidate>() {
+
+            @Override
+            public int compare(Candidate o1, Candidate o2) {
+                return Double.compare(o2.tweetsPerSec, o1.tweetsPerSec);
+            }
+        });
+
+        List<String> tmpTrack = new ArrayList<String>(Math.min(maxTerms, ranked.size()));
+        for (Candidate c : ranked) {
+            if (tmpTrack.size() < maxTerms)
+                tmpTrack.add(c.term);
+            else
+                tmpOverflow.add(c.tag);
+        }
+        trackTerms = tmpTrack;
+        overflow = tmpOverflow;
+        return this;
+    }
+
+    /**
+     * @return the terms to track ordered by decreasing expected tweets per second
+     */
+    public List<String> getTrackTerms() {
+        return trackTerms;
+    }
+
+    /**
+     * @return the tags which are not subsumed but which cannot be tracked
+     */
+    public List<JTag> getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return the number of removed phrases which are already covered by another term
+     */
+    public int getSubsumed() {
+        return subsumed;
+    }
+
+    static String[] getWords(String term) {
+        Set<String> words = new TreeSet<String>();
+        for (String w : term.toLowerCase().split("\\s+")) {
+            if (!w.isEmpty())
+                words.add(w);
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    static boolean isSubsumed(String[] words, Map<String, ?> keys) {
+        if (words.length < 2 || words.length > MAX_WORDS)
+            return false;
+
+        int all = (1 << words.length) - 1;
+        for (int mask = 1; mask < all; mask++) {
+            if (keys.containsKey(toKey(words, mask)))
+                return true;
+        }
+        return false;
+    }
+
+    static String toKey(String[] words, int mask) {
+        if (mask == 1 && words.length > 0)
+            return words[0];
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            if ((mask & (1 << i)) == 0)
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(words[i]);
+        }
+        return sb.toString();
+    }
+
+    static int getBytes(String term) {
+        try {
+            return term.getBytes(Helper.UTF8).length;
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static class Candidate {
+
+        final JTag tag;
+        final String term;
+        final String[] words;
+        double tweetsPerSec;
+
+        Candidate(JTag tag, String term, String[] words) {
+            this.tag = tag;
+            this.term = term;
+            this.words = words;
+        }
+    }
+}
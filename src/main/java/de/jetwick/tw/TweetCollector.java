@@ -23,8 +23,11 @@ import de.jetwick.config.DefaultModule;
 import de.jetwick.es.ElasticTagSearch;
 import de.jetwick.es.ElasticTweetSearch;
 import de.jetwick.es.ElasticUserSearch;
+import de.jetwick.es.QueueLog;
+import de.jetwick.es.UserRoster;
 import de.jetwick.rmi.RMIServer;
 import de.jetwick.util.GenericUrlResolver;
+import java.io.File;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,7 +67,7 @@ public class TweetCollector {
         Module module = new DefaultModule();
         Injector injector = Guice.createInjector(module);
         TwitterSearch tws = injector.getInstance(TwitterSearch.class);
-        ElasticTweetSearch tweetSearch = injector.getInstance(ElasticTweetSearch.class);
+        final ElasticTweetSearch tweetSearch = injector.getInstance(ElasticTweetSearch.class);
 
         // WAIT UNTIL AVAILABLE
         tweetSearch.waitUntilAvailable(10000);
@@ -105,13 +108,24 @@ public class TweetCollector {
         producerViaStream.setTagSearch(tagSearch);
         producerViaStream.setUncaughtExceptionHandler(excHandler);
         producerViaStream.setTweetsPerSecLimit(cfg.getTweetsPerSecLimit());
+        if (twProducer instanceof TweetProducerViaSearch)
+            producerViaStream.setOverflowProducer((TweetProducerViaSearch) twProducer);
 
         // feeding consumer from tweets of friends (of registered users)
         TweetProducerViaUsers producerFromFriends = injector.getInstance(TweetProducerViaUsers.class);
         producerFromFriends.setQueue(twConsumer.register("producer-friends", queueCapacity, 100));
         producerFromFriends.setTwitterSearch(tws);
         producerFromFriends.setUserSearch(userSearch);
+        // both producers read the users from memory
+        UserRoster userRoster = new UserRoster(userSearch);
+        producerFromFriends.setUserRoster(userRoster);
+        if (twProducer instanceof TweetProducerViaSearch)
+            ((TweetProducerViaSearch) twProducer).setUserRoster(userRoster);
         producerFromFriends.setUncaughtExceptionHandler(excHandler);
+        producerFromFriends.setThreads(cfg.getFriendsThreads());
+        String friendsStateFile = cfg.getFriendsStateFile();
+        if (friendsStateFile != null)
+            producerFromFriends.setStateFile(new File(friendsStateFile));
 
         // feeding consumer from UI        
         RMIServer rmiServer = injector.getInstance(RMIServer.class);
@@ -120,7 +134,27 @@ public class TweetCollector {
   
         // configure tweet index to call UrlResolver after feeding of a tweet        
         tweetSearch.setRemoveOlderThanDays(cfg.getTweetSearchRemoveDays());
-        tweetSearch.setBatchSize(cfg.getTweetSearchBatch());                
+        tweetSearch.setBatchSize(cfg.getTweetSearchBatch());
+        tweetSearch.setIndexingThreads(cfg.getTweetSearchIndexingThreads());
+        tweetSearch.setMaxBulksInFlight(cfg.getTweetSearchBulksInFlight());
+        tweetSearch.setTargetBulkBytes(cfg.getTweetSearchBulkTargetBytes());
+        tweetSearch.setMaxIndexingLatency(cfg.getTweetSearchMaxLatency());
+        String queueLogDir = cfg.getTweetSearchQueueLogDir();
+        if (queueLogDir != null)
+            tweetSearch.setQueueLog(new QueueLog(new File(queueLogDir)));
+
+        // the resolver queries the index only for tweets and urls which are maybe indexed
+        // and the duplicates are queried until the duplicate index is filled
+        Thread filterThread = new Thread("tweet-filter-filler") {
+
+            @Override
+            public void run() {
+                tweetSearch.fillTweetFilter(1000);
+                tweetSearch.fillDuplicateIndex(1000);
+            }
+        };
+        filterThread.setDaemon(true);
+        filterThread.start();
 
         Thread twProducerThread = new Thread(twProducer, "tweet-producer");
         twProducerThread.setUncaughtExceptionHandler(excHandler);
@@ -22,12 +22,15 @@ import de.jetwick.snacktory.JResult;
 import de.jetwick.util.GenericUrlResolver;
 import de.jetwick.util.StopWatch;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import org.elasticsearch.common.cache.CacheBuilder;
 import org.slf4j.Logger;
@@ -47,6 +50,16 @@ public class TweetConsumer extends Thread {
     private Map<Long, Object> tweetCache;
     private static final Object OBJECT = new Object();
     private UrlExtractor urlExtractor;
+    // released if a tweet is added to an input queue
+    private final Semaphore signal = new Semaphore(0);
+    private static final Comparator<QueueInfo<?>> FAIR_SHARE = new Comparator<QueueInfo<?>>() {
+
+        @Override
+        public int compare(QueueInfo<?> o1, QueueInfo<?> o2) {
+            return Float.compare(o1.getOutputFrequency() / Math.max(1, o1.getBatchSize()),
+                    o2.getOutputFrequency() / Math.max(1, o2.getBatchSize()));
+        }
+    };
 
     public TweetConsumer() {
         super("tweet-consumer");
@@ -75,11 +88,11 @@ public class TweetConsumer extends Thread {
             sw.start();
             int feeded = executeOneBatch();
             sw.stop();
-            if (feeded < 10) {
+            if (feeded == 0) {
                 try {
-                    Thread.sleep(400);
+                    awaitInput(1000);
                 } catch (InterruptedException ex) {
-                    logger.error(getName() + " interrupted while sleeping: " + ex.getLocalizedMessage());
+                    logger.error(getName() + " interrupted while waiting: " + ex.getLocalizedMessage());
                     break;
                 }
             }
@@ -112,7 +125,7 @@ public class TweetConsumer extends Thread {
      * @return the newly registered queue
      */
     public BlockingQueue<JTweet> register(String queueName, int capacity, int batchSize) {
-        BlockingQueue q = new LinkedBlockingQueue<JTweet>(capacity);
+        BlockingQueue q = new SignalingQueue<JTweet>(capacity, signal);
         QueueInfo qInfo = new QueueInfo(queueName, q);
         for (QueueInfo<JTweet> qi : inputQueues) {
             if (qi.getName().equals(queueName))
@@ -135,33 +148,82 @@ public class TweetConsumer extends Thread {
         return qInfo.getQueue();
     }
 
+    /**
+     * Feeds the tweets of all input queues via deficit round robin: every
+     * queue gets its batchSize as quantum, scaled down if the resolver queue
+     * cannot take all of them. The queue with the lowest output frequency
+     * relative to its batchSize is served first.
+     */
     public int executeOneBatch() {
+        List<QueueInfo<JTweet>> queues = new ArrayList<QueueInfo<JTweet>>(inputQueues);
+        Collections.sort(queues, FAIR_SHARE);
+        int sum = 0;
+        for (QueueInfo<JTweet> qi : queues) {
+            if (!qi.getQueue().isEmpty())
+                sum += qi.getBatchSize();
+        }
+
         int feeded = 0;
-        for (QueueInfo<JTweet> qi : inputQueues) {
-            int batchSize = qi.getBatchSize();
-            Queue<JTweet> queue = qi.getQueue();
-            int newTweets = 0;
-            for (; newTweets < batchSize; newTweets++) {
-                JTweet tw = queue.poll();
-                if (tw == null)
-                    break;
+        if (sum > 0) {
+            int remaining = resolver.getInputQueue().remainingCapacity();
+            float scale = Math.min(1f, Math.max(1, remaining) / (float) sum);
+            for (QueueInfo<JTweet> qi : queues) {
+                feeded += feed(qi, scale);
+            }
+        }
 
-                if (!tw.isPersistent() && tweetCache != null && tweetCache.put(tw.getTwitterId(), OBJECT) != null) {
-                    newTweets--;
-                    continue;
-                }
+        long now = System.currentTimeMillis();
+        for (QueueInfo<JTweet> qi : queues) {
+            qi.measure(now);
+        }
+        return feeded;
+    }
+
+    int feed(QueueInfo<JTweet> qi, float scale) {
+        Queue<JTweet> queue = qi.getQueue();
+        if (queue.isEmpty()) {
+            qi.setDeficit(0);
+            return 0;
+        }
+
+        float deficit = qi.getDeficit() + qi.getBatchSize() * scale;
+        int newTweets = 0;
+        while (deficit >= 1) {
+            JTweet tw = queue.poll();
+            if (tw == null)
+                break;
+
+            if (!tw.isPersistent() && tweetCache != null && tweetCache.put(tw.getTwitterId(), OBJECT) != null)
+                continue;
 
-                if (urlExtractor != null) {
-                    for (UrlEntry ue : ((UrlExtractor) urlExtractor.setTweet(tw).run()).getUrlEntries()) {
-                        tw.addUrlEntry(ue);
-                    }
+            if (urlExtractor != null) {
+                for (UrlEntry ue : ((UrlExtractor) urlExtractor.setTweet(tw).run()).getUrlEntries()) {
+                    tw.addUrlEntry(ue);
                 }
-                feeded++;
-                resolver.queueObject(tw);
             }
+            deficit--;
+            newTweets++;
+            resolver.queueObject(tw);
+        }
+
+        // no credit for empty queues
+        qi.setDeficit(queue.isEmpty() ? 0 : deficit);
+        qi.setOutputCount(qi.getOutputCount() + newTweets);
+        return newTweets;
+    }
 
+    /**
+     * Blocks until a tweet is added to one of the input queues
+     *
+     * @return false if timed out
+     */
+    public boolean awaitInput(long timeoutMillis) throws InterruptedException {
+        signal.drainPermits();
+        for (QueueInfo<JTweet> qi : inputQueues) {
+            if (!qi.getQueue().isEmpty())
+                return true;
         }
-        return feeded;
+        return signal.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
     }
 
     public void initTweetCache() {
@@ -177,6 +239,7 @@ public class TweetConsumer extends Thread {
         private int batchSize = 200;
         private int outputCount;
         private float outputFrequency;
+        private float deficit;
 
         public QueueInfo(String name, BlockingQueue<JTweet> queue) {
             this.name = name;
@@ -223,9 +286,73 @@ public class TweetConsumer extends Thread {
             this.outputCount = outputCount;
         }
 
+        public float getDeficit() {
+            return deficit;
+        }
+
+        public void setDeficit(float deficit) {
+            this.deficit = deficit;
+        }
+
+        /**
+         * Calculates the output frequency (per second) from the output count
+         * every 10 seconds
+         */
+        void measure(long now) {
+            long time = now - lastMeasureTime;
+            if (time < 10 * 1000)
+                return;
+
+            outputFrequency = outputCount * 1000f / time;
+            outputCount = 0;
+            lastMeasureTime = now;
+        }
+
         @Override
         public String toString() {
             return getName() + "\t size:" + getQueue().size() + "\t count:" + outputCount + "\t oFreq.:" + getOutputFrequency();
         }
     }
+
+    /**
+     * Signals the consumer when a tweet was added
+     */
+    static class SignalingQueue<E> extends LinkedBlockingQueue<E> {
+
+        private static final long serialVersionUID = 1L;
+        private final Semaphore signal;
+
+        public SignalingQueue(int capacity, Semaphore signal) {
+            super(capacity);
+            this.signal = signal;
+        }
+
+        @Override
+        public boolean offer(E e) {
+            boolean ret = super.offer(e);
+            if (ret)
+                signal();
+            return ret;
+        }
+
+        @Override
+        public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+            boolean ret = super.offer(e, timeout, unit);
+            if (ret)
+                signal();
+            return ret;
+        }
+
+        @Override
+        public void put(E e) throws InterruptedException {
+            super.put(e);
+            signal();
+        }
+
+        private void signal() {
+            // a few surplus permits only cause a needless check of the queues
+            if (signal.availablePermits() == 0)
+                signal.release();
+        }
+    }
 }
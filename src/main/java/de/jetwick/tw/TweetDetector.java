@@ -47,6 +47,15 @@ public class TweetDetector {
     public static final String FR = "fr";
     public static final String PT = "pt";
     public static final Set<String> LANGS = new LinkedHashSet<String>(Arrays.asList(DE, NL, EN, RU, ES, FR, PT));
+    private static final String URL_START = "http://";
+    // reused for every text of the current thread
+    private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+
+        @Override
+        protected char[] initialValue() {
+            return new char[256];
+        }
+    };
     
     private Collection<JTweet> tweets;
     private int termMaxCount = 6;
@@ -62,32 +71,126 @@ public class TweetDetector {
 
     /**
      * To create symbol-free terms
-     *
-     * TODO PERFORMANCE expensive method
      */
     public static String stripNoiseFromWord(String str) {
         if (str.length() < 2)
             return str;
 
-        // remove highlighting
-        str = str.replaceAll("<b>", "");
-        str = str.replaceAll("</b>", "");
-        // ignore urls
-        // urls contain all characters except spaces: [^ ] and we need this multple times: *
-        str = str.replaceAll("http[s]?://[^ ]*", " ");
-        str = str.replaceAll("[\\\"\\:\\;\\&\\.\\!\\?\\)\\(\\[\\]\\,\\>\\<\\-\\n\\t\\&]", " ");
-        str = str.replaceAll(" #", " ");
-        // or at the beginning of the line
-        if (str.charAt(0) == '#')
-            str = str.substring(1);
-        str = str.replaceAll("^#", " ");
+        char[] buffer = getBuffer(str.length());
+        return new String(buffer, 0, stripNoise(str, buffer));
+    }
 
-        str = str.replaceAll(":-", " ");
-        str = str.replaceAll(";-", " ");
+    private static char[] getBuffer(int length) {
+        char[] buffer = buffers.get();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, 2 * buffer.length)];
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
 
-        return str;
+    /**
+     * Writes the text into the specified buffer in one pass: highlighting is
+     * removed, urls and punctuation are replaced by a space and # is removed
+     * at the beginning of a word.
+     *
+     * @return the number of characters written
+     */
+    static int stripNoise(String str, char[] buffer) {
+        int length = 0;
+        // position and last character of the text after removing highlighting,
+        // urls and punctuation but before removing #
+        int pos = 0;
+        char prev = 0;
+        boolean firstIsHash = false;
+        int i = 0;
+        while (true) {
+            i = skipHighlighting(str, i);
+            if (i >= str.length())
+                break;
+
+            char c;
+            int urlEnd = skipUrl(str, i);
+            if (urlEnd > i) {
+                c = ' ';
+                i = urlEnd;
+            } else {
+                c = str.charAt(i++);
+                if (isNoise(c))
+                    c = ' ';
+            }
+
+            if (c == '#') {
+                if (pos == 0)
+                    firstIsHash = true;
+                else if (pos == 1 && firstIsHash)
+                    buffer[length++] = ' ';
+                else if (prev != ' ')
+                    buffer[length++] = c;
+            } else
+                buffer[length++] = c;
+
+            prev = c;
+            pos++;
+        }
+        return length;
+    }
+
+    private static boolean isNoise(char c) {
+        switch (c) {
+            case '"':
+            case ':':
+            case ';':
+            case '&':
+            case '.':
+            case '!':
+            case '?':
+            case ')':
+            case '(':
+            case '[':
+            case ']':
+            case ',':
+            case '>':
+            case '<':
+            case '-':
+            case '\n':
+            case '\t':
+                return true;
+            default:
+                return false;
+        }
     }
 
+    private static int skipHighlighting(String str, int i) {
+        while (true) {
+            if (str.startsWith("<b>", i))
+                i += 3;
+            else if (str.startsWith("</b>", i))
+                i += 4;
+            else
+                return i;
+        }
+    }
+
+    /**
+     * @return the index of the space after the url starting at i (ignoring
+     * highlighting), or i if there is no url
+     */
+    private static int skipUrl(String str, int i) {
+        int j = i;
+        for (int k = 0; k < URL_START.length(); k++) {
+            if (k > 0)
+                j = skipHighlighting(str, j);
+            if (j < str.length() && k == 4 && str.charAt(j) == 's')
+                j = skipHighlighting(str, j + 1);
+            if (j >= str.length() || str.charAt(j) != URL_START.charAt(k))
+                return i;
+            j++;
+        }
+
+        int end = str.indexOf(' ', j);
+        return end < 0 ? str.length() : end;
+    }
     public List<Entry<String, Integer>> getSortedTerms() {
         return terms.getSortedTermLimited(termMaxCount);
     }
@@ -136,41 +239,73 @@ public class TweetDetector {
     }
 
     private void oneTweet(Map<String, Integer> termMap, Map<String, Integer> langMap, String text) {
-        // split against white space characters
-        text = stripNoiseFromWord(text);
-        String tmpTerms[] = text.split("\\s");
-//        Analyzer ana = new JetwickAnalyzer();
-//        TokenStream ts = ana.tokenStream("tw", new StringReader(text));
-//        CharTermAttribute termAttribute = ts.getAttribute(CharTermAttribute.class);
-        int counter = 0;
-        for (String term : tmpTerms) {
-            counter++;
-            if (term.length() < 2 || term.length() > 70 || term.startsWith("@"))
+        char[] buffer = getBuffer(text.length());
+        int length = text.length() < 2 ? copy(text, buffer) : stripNoise(text, buffer);
+        // split against white space characters. the last term is only known
+        // after the next one was found
+        int lastStart = -1;
+        int lastEnd = -1;
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && !isWhitespace(buffer[i])) {
+                if (start < 0)
+                    start = i;
                 continue;
-
-            Set<String> detectedLangs = JTweet.LANG_DET_WORDS.get(term);
-            if (langMap != null && detectedLangs != null) {
-                // skip the last term for language detection
-                if (counter < tmpTerms.length) {
-                    for (String lang : detectedLangs) {
-                        if (lang.equals(TweetDetector.NUM_TERMS)
-                                || lang.equals(TweetDetector.SINGLE_CHAR_TERMS)
-                                || lang.equals(TweetDetector.MISC_TERMS))
-                            continue;
-
-                        Integer integ = langMap.put(lang, 1);
-                        if (integ != null)
-                            langMap.put(lang, integ + 1);
-                    }
-                }
             }
 
-            Set<String> noiseWordLangs = JTweet.NOISE_WORDS.get(term);
-            if (termMap != null && noiseWordLangs == null) {
-                Integer integ = termMap.put(term, 1);
+            if (start < 0)
+                continue;
+
+            if (lastStart >= 0)
+                oneTerm(termMap, langMap, buffer, lastStart, lastEnd, false);
+            lastStart = start;
+            lastEnd = i;
+            start = -1;
+        }
+
+        if (lastStart >= 0)
+            oneTerm(termMap, langMap, buffer, lastStart, lastEnd, true);
+    }
+
+    private void oneTerm(Map<String, Integer> termMap, Map<String, Integer> langMap,
+            char[] buffer, int start, int end, boolean last) {
+        int length = end - start;
+        if (length < 2 || length > 70 || buffer[start] == '@')
+            return;
+
+        String term = new String(buffer, start, length);
+        Set<String> detectedLangs = JTweet.LANG_DET_WORDS.get(term);
+        // skip the last term for language detection
+        if (langMap != null && detectedLangs != null && !last) {
+            for (String lang : detectedLangs) {
+                if (lang.equals(TweetDetector.NUM_TERMS)
+                        || lang.equals(TweetDetector.SINGLE_CHAR_TERMS)
+                        || lang.equals(TweetDetector.MISC_TERMS))
+                    continue;
+
+                Integer integ = langMap.put(lang, 1);
                 if (integ != null)
-                    termMap.put(term, integ + 1);
+                    langMap.put(lang, integ + 1);
             }
         }
+
+        Set<String> noiseWordLangs = JTweet.NOISE_WORDS.get(term);
+        if (termMap != null && noiseWordLangs == null) {
+            Integer integ = termMap.put(term, 1);
+            if (integ != null)
+                termMap.put(term, integ + 1);
+        }
+    }
+
+    private static int copy(String text, char[] buffer) {
+        text.getChars(0, text.length(), buffer, 0);
+        return text.length();
+    }
+
+    /**
+     * the characters of the regular expression \\s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
     }
 }
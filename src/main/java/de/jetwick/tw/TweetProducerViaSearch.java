@@ -21,15 +21,19 @@ import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
 import de.jetwick.es.ElasticTagSearch;
 import de.jetwick.es.JetwickQuery;
-import de.jetwick.util.AnyExecutor;
+import de.jetwick.es.UserRoster;
 import de.jetwick.util.Helper;
 import de.jetwick.util.MyDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.LinkedBlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,10 +48,14 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     protected BlockingQueue<JTweet> resultTweets = new LinkedBlockingQueue<JTweet>();
-    private PriorityQueue<JTag> tags = new PriorityQueue<JTag>();
+    private static final long NEW_TAGS_INTERVAL = 5 * 60 * 1000L;
+    private static final long RATE_LIMIT_INTERVAL = 60 * 1000L;
+    private final TagScheduler scheduler = new TagScheduler();
+    private int searchThreads = 3;
     protected TwitterSearch twSearch;
     protected ElasticTagSearch tagSearch;
     protected ElasticUserSearch userSearch;
+    protected UserRoster userRoster;
 
     public TweetProducerViaSearch() {
         super("tweet-producer-search");
@@ -64,76 +72,128 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
 
     @Override
     public void run() {
+        ExecutorService service = Executors.newFixedThreadPool(searchThreads, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tag-search-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.setMaxRunning(searchThreads);
         long findNewTagsTime = -1;
-        Collection<JTweet> tmpColl = new ArrayList<JTweet>(500);
-        while (!isInterrupted()) {
-            if (tags.isEmpty()) {
-                initTags();
-                if (tags.isEmpty()) {
-                    logger.warn("No tags found in db! Either add some via script ./utils/es-import-tags.sh "
-                            + "or track a keyword with rss button when logged in");
-                    break;
+        long rateLimitTime = -1;
+        try {
+            while (!isInterrupted()) {
+                long now = System.currentTimeMillis();
+                if (scheduler.size() == 0 || now - findNewTagsTime > NEW_TAGS_INTERVAL) {
+                    initTags();
+                    if (scheduler.size() == 0) {
+                        logger.warn("No tags found in db! Either add some via script ./utils/es-import-tags.sh "
+                                + "or track a keyword with rss button when logged in");
+                        break;
+                    }
+                    findNewTagsTime = now;
                 }
 
-                if (findNewTagsTime > 0 && System.currentTimeMillis() - findNewTagsTime < 2000) {
-                    // wait 2 to 60 seconds. depends on the demand
-                    int sec = Math.max(2, (int) tags.peek().getWaitingSeconds() + 1);
-                    logger.info("all tags are pausing. wait " + sec + " seconds ");
-                    myWait(sec);
+                if (now - rateLimitTime > RATE_LIMIT_INTERVAL) {
+                    updateRateLimit();
+                    rateLimitTime = now;
                 }
 
-                findNewTagsTime = System.currentTimeMillis();
-            }
-
-            JTag tag = tags.poll();
-            long lastMillis = tag.getLastMillis();
-            if (tag != null && tag.nextQuery()) {
-                String term = tag.getTerm();
-                if (term == null) {
-                    // TODO use user search later on
-                    logger.warn("TODO skipping tags with empty terms for now:" + tag);
+                final JTag tag = scheduler.poll(now);
+                if (tag == null) {
+                    // wait until the next tag is due or a search finished
+                    long wait = Math.min(scheduler.getWaitMillis(now), 10 * 1000L);
+                    if (!myWait(wait / 1000f))
+                        break;
                     continue;
                 }
 
-                if (term.isEmpty() || JetwickQuery.containsForbiddenChars(term))
-                    continue;
+                service.execute(new Runnable() {
 
-                float waitInSeconds = 1f;
-                try {
-                    int pages = tag.getPages();
-                    tmpColl.clear();
-                    long newMaxCreateTime = twSearch.search(term + " " + TwitterSearch.LINK_FILTER, tmpColl, pages * 100, 0);
-
-                    // calc tweets per sec with 'floating mean'
-                    double lastTweetsPerSec = tag.getTweetsPerSec();
-                    int newTweets = guessNewTweets(tmpColl, tag.getMaxCreateTime());
-                    lastTweetsPerSec = lastTweetsPerSec + newTweets / ((System.currentTimeMillis() - lastMillis) / 1000.0);
-                    tag.setTweetsPerSec(lastTweetsPerSec / 2);
-                    tag.setMaxCreateTime(newMaxCreateTime);
-                    logger.info("searched: " + tag + "\t=> tweets:" + tmpColl.size() + "\t newTweets:" + newTweets);
-                    for (JTweet tw : tmpColl) {
-                        try {
-                            resultTweets.put(tw.setFeedSource("search:" + term));
-                        } catch (InterruptedException ex) {
-                            logger.error("Cannot put article into queue:" + tw + " " + ex.getMessage());
-                            break;
-                        }
+                    @Override
+                    public void run() {
+                        search(tag);
+                        wakeUp();
                     }
-//                    resultTweets.add(new JTweet(123, "something http://t.co/BVDTqCO", new JUser("timetabling")));
-
-                    updateTag(tag, tmpColl.size());
-                } catch (TwitterException ex) {
-                    waitInSeconds = 3f;
-                    logger.warn("Couldn't finish search for tag '" + term + "': " + Helper.getMsg(ex));
-                    if (ex.exceededRateLimitation())
-                        waitInSeconds = ex.getRetryAfter();
-                }
+                });
+            }
+        } finally {
+            service.shutdownNow();
+        }
+        logger.info(getName() + " finished");
+    }
 
-                if (!myWait(waitInSeconds))
+    /**
+     * Searches the tag and hands it back to the scheduler
+     */
+    void search(JTag tag) {
+        String term = tag.getTerm();
+        long lastMillis = tag.getLastMillis();
+        long start = System.currentTimeMillis();
+        tag.setLastMillis(start);
+        try {
+            int pages = tag.getPages();
+            Collection<JTweet> tmpColl = new ArrayList<JTweet>(pages * 100);
+            long newMaxCreateTime = twSearch.search(term + " " + TwitterSearch.LINK_FILTER, tmpColl, pages * 100, 0);
+            int newTweets = guessNewTweets(tmpColl, tag.getMaxCreateTime());
+            tag.setMaxCreateTime(newMaxCreateTime);
+            for (JTweet tw : tmpColl) {
+                try {
+                    resultTweets.put(tw.setFeedSource("search:" + term));
+                } catch (InterruptedException ex) {
+                    logger.error("Cannot put article into queue:" + tw + " " + ex.getMessage());
                     break;
+                }
             }
+//            resultTweets.add(new JTweet(123, "something http://t.co/BVDTqCO", new JUser("timetabling")));
+
+            // calc tweets per sec with 'floating mean'
+            scheduler.update(tag, newTweets, lastMillis > 0 ? (start - lastMillis) / 1000.0 : 0);
+            logger.info("searched: " + tag + "\t=> tweets:" + tmpColl.size() + "\t newTweets:" + newTweets);
+            tagSearch.queueObject(tag);
+        } catch (TwitterException ex) {
+            long retryMillis = 3000;
+            logger.warn("Couldn't finish search for tag '" + term + "': " + Helper.getMsg(ex));
+            if (ex.exceededRateLimitation()) {
+                retryMillis = ex.getRetryAfter() * 1000L;
+                scheduler.pause(retryMillis, System.currentTimeMillis());
+            }
+            scheduler.failed(tag, retryMillis, System.currentTimeMillis());
+        } catch (RuntimeException ex) {
+            logger.error("Couldn't search tag '" + term + "'", ex);
+            scheduler.failed(tag, TagScheduler.MIN_INTERVAL, System.currentTimeMillis());
         }
-        logger.info(getName() + " finished");
+    }
+
+    void updateRateLimit() {
+        try {
+            int remaining = twSearch.getRateLimitFromCache();
+            if (remaining < 0) {
+                scheduler.setRateLimit(-1, -1);
+                return;
+            }
+
+            int seconds = twSearch.getSecondsUntilReset();
+            scheduler.setRateLimit(remaining, seconds);
+            logger.info("Rate limit:" + remaining + " reset in " + seconds + " seconds. Search every "
+                    + scheduler.getSpacing() + " ms");
+        } catch (Exception ex) {
+            logger.error("Cannot determine rate limit: " + Helper.getMsg(ex));
+            scheduler.setRateLimit(-1, -1);
+        }
+    }
+
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = searchThreads;
     }
 
     @Override
@@ -141,10 +201,34 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
         this.twSearch = tws;
     }
 
-    public void updateTag(JTag tag, int hits) {
-        tag.optimizeQueryFrequency(hits);
-        tagSearch.queueObject(tag);
+    /**
+     * Schedules the specified tags until the next call e.g. if they cannot be
+     * tracked via the stream. Can be called from another thread.
+     */
+    public void setOverflowTags(Collection<JTag> overflow) {
+        List<JTag> tags = new ArrayList<JTag>(overflow.size());
+        for (JTag tag : overflow) {
+            if (isSearchable(tag))
+                tags.add(tag);
+        }
+        scheduler.setOverflowTags(tags);
+    }
+
+    TagScheduler getScheduler() {
+        return scheduler;
     }
+
+    boolean isSearchable(JTag tag) {
+        String term = tag.getTerm();
+        if (term == null) {
+            // TODO use user search later on
+            logger.warn("TODO skipping tags with empty terms for now:" + tag);
+            return false;
+        }
+
+        return !term.isEmpty() && !JetwickQuery.containsForbiddenChars(term);
+    }
+
     private long lastDelete = -1;
     private int hours = 3;
 
@@ -167,14 +251,10 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
         try {
             final Collection<String> userQueryTerms = userSearch.getQueryTerms();
             // TODO execute in separate thread but separate tags by 'OR'
-            userSearch.executeForAll(new AnyExecutor<JUser>() {
-
-                @Override
-                public JUser execute(JUser u) {
-                    userQueryTerms.addAll(u.getTopics());
-                    return u;
-                }
-            }, 1000);
+            userRoster.refresh();
+            for (JUser u : userRoster.getUsers()) {
+                userQueryTerms.addAll(u.getTopics());
+            }
             int counter = 0;
             for (String termAsStr : userQueryTerms) {
                 termAsStr = JTag.toLowerCaseOnlyOnTerms(termAsStr).trim();
@@ -200,15 +280,27 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
             logger.error("Couldn't query user index to feed tweet index with user queries:" + Helper.getMsg(ex));
         }
 
-        tags.clear();
-        tags.addAll(tmpTags.values());
-        logger.info("Using " + tags.size() + " tags. first tag is: " + tags.peek());
-        return tags;
+        List<JTag> tags = new ArrayList<JTag>(tmpTags.size());
+        for (JTag tag : tmpTags.values()) {
+            if (isSearchable(tag))
+                tags.add(tag);
+        }
+        scheduler.setTags(tags);
+        logger.info("Using " + tags.size() + " tags");
+        return tmpTags.values();
     }
 
     @Override
     public void setUserSearch(ElasticUserSearch userSearch) {
         this.userSearch = userSearch;
+        userRoster = new UserRoster(userSearch);
+    }
+
+    /**
+     * Shares the in-memory users e.g. with other producers
+     */
+    public void setUserRoster(UserRoster userRoster) {
+        this.userRoster = userRoster;
     }
 
     @Override
@@ -19,10 +19,13 @@ import de.jetwick.data.JTag;
 import de.jetwick.data.JTweet;
 import de.jetwick.es.ElasticUserSearch;
 import de.jetwick.es.ElasticTagSearch;
+import de.jetwick.util.AhoCorasick;
 import de.jetwick.util.Helper;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
@@ -44,6 +47,9 @@ public class TweetProducerViaStream extends MyThread implements TweetProducer {
     protected ElasticTagSearch tagSearch;
     private long newStreamInterval = 3 * 60 * 1000;
     private double tweetsPerSecLimit = 0.5;
+    private AhoCorasick tagMatcher = new AhoCorasick(Collections.<String>emptyList());
+    private TrackTermOptimizer optimizer = new TrackTermOptimizer();
+    private TweetProducerViaSearch overflowProducer;
 
     public TweetProducerViaStream() {
         super("tweet-producer-stream");
@@ -65,6 +71,7 @@ public class TweetProducerViaStream extends MyThread implements TweetProducer {
             try {
                 // stream only LESS FREQUENT tags! leave popular tags only for search                
                 Collection<String> input = initTags(termFreq);
+                AhoCorasick matcher = tagMatcher;
                 termFreq.clear();
                 if (input.isEmpty()) {
                     logger.error("No less frequent tags found! Frequency limit:" + tweetsPerSecLimit);
@@ -94,18 +101,16 @@ public class TweetProducerViaStream extends MyThread implements TweetProducer {
                 long start = System.currentTimeMillis();
                 while (true) {
                     JTweet tw = queue.take();
-                    String matchingTerm = null;
-                    String txt = tw.getLowerCaseText();
-                    for (String term : input) {
-                        if (txt.contains(term)) {
-                            matchingTerm = term;
-                            break;
-                        }
-                    }
+                    List<String> matchingTerms = matcher.findAll(tw.getLowerCaseText());
+                    String matchingTerm = matchingTerms.isEmpty() ? null : matchingTerms.get(0);
                     resultTweets.put(tw.setFeedSource("from stream:" + matchingTerm));
-                    Integer integ = termFreq.put(matchingTerm, 1);
-                    if (integ != null)
-                        termFreq.put(matchingTerm, integ + 1);
+                    if (matchingTerms.isEmpty())
+                        incFreq(termFreq, null);
+
+                    // count every tag to detect all high frequent tags
+                    for (String term : matchingTerms) {
+                        incFreq(termFreq, term);
+                    }
 
                     counter++;
                     // UPDATE tags after a while
@@ -156,22 +161,27 @@ public class TweetProducerViaStream extends MyThread implements TweetProducer {
         } catch (Exception ex) {
             logger.info("Couldn't query tag index", ex);
         }
-        // TODO further remove overlapping tags like 'wicket' and 'apache wicket'
-        Set<String> input = new LinkedHashSet<String>();
-        int MAX_TAGS = 400;
-        MAIN:
-        for (JTag t : tags.values()) {
-            String term = t.getTerm();
-            if (input.size() >= MAX_TAGS) {
-                logger.error("Too many Tags - Cannot further add tags!" + input.size());
-                break MAIN;
-            }
-            // filter by links only does NOT work!!
-            input.add(term.trim());// + " " + TwitterSearch.LINK_FILTER);
-        }
+        // remove overlapping tags like 'wicket' and 'apache wicket' and use the most active tags
+        optimizer.optimize(tags.values(), termFreq, newStreamInterval / 1000.0);
+        // filter by links only does NOT work!!
+        Set<String> input = new LinkedHashSet<String>(optimizer.getTrackTerms());
+        List<JTag> overflow = optimizer.getOverflow();
+        if (!overflow.isEmpty())
+            logger.info("Cannot track " + overflow.size() + " tags - fetch them via search");
+        // also remove the tags which can be tracked again
+        if (overflowProducer != null)
+            overflowProducer.setOverflowTags(overflow);
+        // find all matching tags of a tweet with one pass
+        tagMatcher = new AhoCorasick(input);
         return input;
     }
 
+    static void incFreq(Map<String, Integer> termFreq, String term) {
+        Integer integ = termFreq.put(term, 1);
+        if (integ != null)
+            termFreq.put(term, integ + 1);
+    }
+
     @Override
     public void setTagSearch(ElasticTagSearch tagSearch) {
         this.tagSearch = tagSearch;
@@ -182,6 +192,13 @@ public class TweetProducerViaStream extends MyThread implements TweetProducer {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * The tags which cannot be tracked will be searched via the specified producer
+     */
+    public void setOverflowProducer(TweetProducerViaSearch overflowProducer) {
+        this.overflowProducer = overflowProducer;
+    }
+
     public void setNewStreamInterval(long millis) {
         newStreamInterval = millis;
     }
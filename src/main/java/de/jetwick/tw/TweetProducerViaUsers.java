@@ -17,18 +17,35 @@ package de.jetwick.tw;
 
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
+import de.jetwick.util.Helper;
 import de.jetwick.util.StopWatch;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Feeds the tweets of the friends of all authenticated users. The users are
+ * processed in parallel - every user with its own twitter instance and rate
+ * limit. A user is due depending on how active its home timeline is and the
+ * most stale users are processed first.
  *
  * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
  */
@@ -36,44 +53,82 @@ public class TweetProducerViaUsers extends TweetProducerViaSearch {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private Map<String, UserEntry> userMap = new LinkedHashMap<String, UserEntry>();
+    private int threads = 5;
+    private File stateFile;
+    private boolean stateLoaded = false;
 
     public TweetProducerViaUsers() {
         setName("friend-tweet-producer");
     }
 
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Stores the last tweet id and the activity of every user into the
+     * specified file so that a restart does not fetch old tweets again.
+     */
+    public void setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
     public void run(int count) {
-        for (int i = 0; i < count; i++) {
-            innerRun();
+        ExecutorService service = createService();
+        try {
+            for (int i = 0; i < count; i++) {
+                innerRun(service);
+            }
+        } finally {
+            service.shutdownNow();
         }
     }
 
     @Override
     public void run() {
         logger.info("Started " + getName());
-        while (!isInterrupted()) {
-            if (!innerRun())
-                break;
+        ExecutorService service = createService();
+        try {
+            while (!isInterrupted()) {
+                if (!innerRun(service))
+                    break;
+            }
+        } finally {
+            service.shutdownNow();
         }
         logger.info("Finished " + getName());
     }
 
-    public boolean innerRun() {
-        int counter = 0;
-        Set<JUser> users = new LinkedHashSet<JUser>();
-        // TODO count users with token!
-        long counts = userSearch.countAll();
-        int ROWS = 100;
-        // paging
-        for (int i = 0; i < counts / ROWS + 1; i++) {
-            try {
-                userSearch.searchLastLoggedIn(users, i * ROWS, ROWS);
-            } catch (Exception ex) {
-                logger.error("Couldn't search user index: " + ex.getMessage());
+    ExecutorService createService() {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "friend-tweets-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
             }
+        });
+    }
+
+    public boolean innerRun(ExecutorService service) {
+        if (!stateLoaded) {
+            stateLoaded = true;
+            loadState();
         }
 
+        // fetch only the users modified since the last cycle
+        try {
+            userRoster.refresh();
+        } catch (Exception ex) {
+            logger.error("Couldn't search user index: " + ex.getMessage());
+        }
+        Collection<JUser> users = userRoster.getActiveUsers();
         logger.info("Found:" + users.size() + " users in user index");
-        List<JUser> scheduleForDelete = new ArrayList();
+        final long now = System.currentTimeMillis();
+        List<UserEntry> dueUsers = new ArrayList<UserEntry>();
         for (JUser authUser : users) {
             if (!isValidUser(authUser))
                 continue;
@@ -82,98 +137,189 @@ public class TweetProducerViaUsers extends TweetProducerViaSearch {
             if (ue == null) {
                 ue = new UserEntry(authUser);
                 userMap.put(authUser.getScreenName(), ue);
-            }
+            } else
+                ue.setUser(authUser);
 
-            if (ue.getTwitterSearch() == null) {
-                Exception ex = null;
-                try {
-//                    logger.info("name:\t" + authUser.getScreenName());
-//                    logger.info("token:\t" + authUser.getTwitterToken());
-//                    logger.info("token_secret:\t" + authUser.getTwitterTokenSecret());                    
-//                    logger.info("consumer_key:\t" + twSearch.getConsumerKey());
-//                    logger.info("consumer_secret:\t" + twSearch.getConsumerSecret());                    
-
-                    ue.setTwitterSearch(createTwitter4J(authUser.getTwitterToken(),
-                            authUser.getTwitterTokenSecret()));
-                } catch (Exception ex2) {
-                    ex = ex2;
-                }
-                if (ue.getTwitterSearch() == null) {
-                    String str = getErrorMsg(ex);
-                    if (str.contains("401:Authentication credentials")) {
-                        authUser.setActive(false);
-                        scheduleForDelete.add(authUser);
-                    }
+            if (ue.isDue(now))
+                dueUsers.add(ue);
+        }
 
-                    logger.error("Skipping user:" + authUser.getScreenName()
-                            + " token: " + authUser.getTwitterToken()
-                            + " active: " + authUser.isActive()
-                            + " error: " + str);
-                    continue;
-                }
+        // the user with the most expected new tweets first
+        Collections.sort(dueUsers, new Comparator<UserEntry>() {
+
+            @Override
+            public int compare(UserEntry o1, UserEntry o2) {
+                return Double.compare(o2.getExpectedTweets(now), o1.getExpectedTweets(now));
             }
+        });
+
+        final List<JUser> scheduleForDelete = Collections.synchronizedList(new ArrayList<JUser>());
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(dueUsers.size());
+        for (final UserEntry ue : dueUsers) {
+            tasks.add(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    try {
+                        harvest(ue, scheduleForDelete);
+                    } catch (Exception ex) {
+                        logger.error("Problem while processing user " + ue.getUser().getScreenName()
+                                + " Error:" + getErrorMsg(ex));
+                    }
+                    return null;
+                }
+            });
+        }
 
-            // getRateLimit is too slow -> use cached most of the times
-            int rl = 0;
-            if (counter++ % 20 == 0)
-                rl = ue.getTwitterSearch().getRateLimit();
-            else
-                rl = ue.getTwitterSearch().getRateLimitFromCache();
+        try {
+            service.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            return false;
+        }
 
-            if (rl < TwitterSearch.LIMIT) {
-                logger.info("No API points left for user:" + ue.getUser() + " " + ue.getTwitterSearch().getSecondsUntilReset());
-                continue;
-            }
+        userSearch.update(scheduleForDelete);
+        saveState();
+        myWait(10);
+        return true;
+    } // next cycle
 
-            int friends = -1;
-            // regularly check if friends of authenticated user were changed
+    void harvest(UserEntry ue, List<JUser> scheduleForDelete) {
+        JUser authUser = ue.getUser();
+        if (ue.getTwitterSearch() == null) {
+            Exception ex = null;
             try {
-//                logger.info("Grabbing friends of " + ue.getTwitterSearch().getScreenName() + " (" + ue.getUser().getScreenName() + ")");
-                friends = new FriendSearchHelper(userSearch, ue.getTwitterSearch()).updateFriendsOf(authUser).size();
-            } catch (Exception ex) {
-                logger.error("Problem when getting friends from " + authUser.getScreenName()
-                        + " Error:" + getErrorMsg(ex));
-                continue;
+                ue.setTwitterSearch(createTwitter4J(authUser.getTwitterToken(),
+                        authUser.getTwitterTokenSecret()));
+            } catch (Exception ex2) {
+                ex = ex2;
             }
+            if (ue.getTwitterSearch() == null) {
+                String str = getErrorMsg(ex);
+                if (str.contains("401:Authentication credentials")) {
+                    authUser.setActive(false);
+                    scheduleForDelete.add(authUser);
+                }
 
-            // regularly feed tweets of friends from authenticated user           
-            try {
-                StopWatch watch = new StopWatch("friends").start();
-                Set<JTweet> tweets = new LinkedHashSet<JTweet>();
+                logger.error("Skipping user:" + authUser.getScreenName()
+                        + " token: " + authUser.getTwitterToken()
+                        + " active: " + authUser.isActive()
+                        + " error: " + str);
+                return;
+            }
+        }
 
-                // reduce maximal tweets per search when user has too many friends
-                int maxTweets = 99;
-                if (friends > 500)
-                    maxTweets = 25;
+        // getRateLimit is too slow -> use cached most of the times
+        int rl = 0;
+        if (ue.nextRateLimitCheck())
+            rl = ue.getTwitterSearch().getRateLimit();
+        else
+            rl = ue.getTwitterSearch().getRateLimitFromCache();
+
+        if (rl < TwitterSearch.LIMIT) {
+            int seconds = ue.getTwitterSearch().getSecondsUntilReset();
+            logger.info("No API points left for user:" + authUser.getScreenName() + " " + seconds);
+            // skip the user until its rate limit is reset
+            ue.pause(Math.max(60, seconds) * 1000L);
+            return;
+        }
 
-                ue.setLastId(ue.getTwitterSearch().getHomeTimeline(tweets, maxTweets, ue.getLastId()));
-                if (tweets.size() > 0) {
-                    for (JTweet tw : tweets) {
-                        if (tw.getFromUser().getScreenName().equalsIgnoreCase(authUser.getScreenName()))
-                            tw.makePersistent();
+        int friends = -1;
+        // regularly check if friends of authenticated user were changed
+        try {
+            friends = new FriendSearchHelper(userSearch, ue.getTwitterSearch()).updateFriendsOf(authUser).size();
+        } catch (Exception ex) {
+            logger.error("Problem when getting friends from " + authUser.getScreenName()
+                    + " Error:" + getErrorMsg(ex));
+            return;
+        }
 
-                        // set to protected as we want to store only the article url (not the tweet!)
-                        if (tw.getFromUser().isProtected())
-                            tw.setProtected(true);
+        // regularly feed tweets of friends from authenticated user
+        try {
+            StopWatch watch = new StopWatch("friends").start();
+            Set<JTweet> tweets = new LinkedHashSet<JTweet>();
+
+            // reduce maximal tweets per search when user has too many friends
+            int maxTweets = 99;
+            if (friends > 500)
+                maxTweets = 25;
+
+            long start = System.currentTimeMillis();
+            ue.setLastId(ue.getTwitterSearch().getHomeTimeline(tweets, maxTweets, ue.getLastId()));
+            ue.update(tweets.size(), start);
+            if (tweets.size() > 0) {
+                for (JTweet tw : tweets) {
+                    if (tw.getFromUser().getScreenName().equalsIgnoreCase(authUser.getScreenName()))
+                        tw.makePersistent();
+
+                    // set to protected as we want to store only the article url (not the tweet!)
+                    if (tw.getFromUser().isProtected())
+                        tw.setProtected(true);
+
+                    resultTweets.put(tw.setFeedSource("friendsOf:" + authUser.getScreenName()));
+                }
+                logger.info("Pushed " + tweets.size() + " friend tweets of " + authUser.getScreenName()
+                        + " into queue. Last date " + new Date(ue.getLastId()) + ". " + watch.stop());
+            }
+        } catch (Exception ex) {
+            logger.error("Exception while retrieving friend tweets of "
+                    + authUser.getScreenName() + " Error:" + getErrorMsg(ex));
+        }
+    }
 
-                        resultTweets.put(tw.setFeedSource("friendsOf:" + authUser.getScreenName()));
-                    }
-                    logger.info("Pushed " + tweets.size() + " friend tweets of " + authUser.getScreenName()
-                            + " into queue. Last date " + new Date(ue.getLastId()) + ". " + watch.stop());
+    void loadState() {
+        if (stateFile == null || !stateFile.exists())
+            return;
+
+        try {
+            BufferedReader reader = Helper.createBuffReader(stateFile);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] cols = line.split("\t");
+                    if (cols.length < 4)
+                        continue;
+
+                    UserEntry ue = new UserEntry(new JUser(cols[0]));
+                    ue.setLastId(Long.parseLong(cols[1]));
+                    ue.lastMillis = Long.parseLong(cols[2]);
+                    ue.tweetsPerSec = Double.parseDouble(cols[3]);
+                    userMap.put(cols[0], ue);
                 }
-            } catch (Exception ex) {
-                logger.error("Exception while retrieving friend tweets of "
-                        + authUser.getScreenName() + " Error:" + getErrorMsg(ex));
+            } finally {
+                reader.close();
             }
+            logger.info("Loaded state of " + userMap.size() + " users from " + stateFile);
+        } catch (Exception ex) {
+            logger.error("Cannot read state of users from " + stateFile + " " + getErrorMsg(ex));
+        }
+    }
 
-            // do not hit twitter too much            
-            myWait(2);
-        } //  next user
+    void saveState() {
+        if (stateFile == null)
+            return;
 
-        userSearch.update(scheduleForDelete);
-        myWait(10);
-        return true;
-    } // next cycle
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try {
+            BufferedWriter writer = Helper.createBuffWriter(tmp);
+            try {
+                for (UserEntry ue : userMap.values()) {
+                    writer.write(ue.getUser().getScreenName() + "\t" + ue.getLastId()
+                            + "\t" + ue.lastMillis + "\t" + ue.tweetsPerSec + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            // replace the old state only with a complete file
+            if (stateFile.exists() && !stateFile.delete() || !tmp.renameTo(stateFile))
+                throw new IOException("Cannot rename " + tmp);
+        } catch (Exception ex) {
+            logger.error("Cannot write state of users to " + stateFile + " " + getErrorMsg(ex));
+        }
+    }
+
+    Map<String, UserEntry> getUserMap() {
+        return userMap;
+    }
 
     String getErrorMsg(Throwable e) {
         if (e == null || e.getMessage() == null)
@@ -195,11 +341,20 @@ public class TweetProducerViaUsers extends TweetProducerViaSearch {
         return true;
     }
 
-    private static class UserEntry {
+    static class UserEntry {
 
+        static final long MIN_INTERVAL = 2 * 60 * 1000L;
+        static final long MAX_INTERVAL = 60 * 60 * 1000L;
+        // try to get so many new tweets per home timeline request
+        static final int TARGET_TWEETS = 20;
         private JUser u;
         private TwitterSearch ts;
         private long lastId = 0L;
+        private long lastMillis = 0L;
+        // floating mean of the new tweets in the home timeline
+        private double tweetsPerSec = 1 / 60.0;
+        private long pausedUntil = 0L;
+        private int checks = 0;
 
         public UserEntry(JUser u) {
             this.u = u;
@@ -224,5 +379,53 @@ public class TweetProducerViaUsers extends TweetProducerViaSearch {
         public JUser getUser() {
             return u;
         }
+
+        public void setUser(JUser u) {
+            this.u = u;
+        }
+
+        public long getLastMillis() {
+            return lastMillis;
+        }
+
+        public double getTweetsPerSec() {
+            return tweetsPerSec;
+        }
+
+        /**
+         * @return true every 20th time
+         */
+        boolean nextRateLimitCheck() {
+            return checks++ % 20 == 0;
+        }
+
+        void pause(long millis) {
+            pausedUntil = System.currentTimeMillis() + millis;
+        }
+
+        boolean isDue(long now) {
+            if (now < pausedUntil)
+                return false;
+
+            return lastMillis + getInterval() <= now;
+        }
+
+        long getInterval() {
+            if (tweetsPerSec <= 0)
+                return MAX_INTERVAL;
+
+            double interval = 1000 * TARGET_TWEETS / tweetsPerSec;
+            return (long) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        }
+
+        double getExpectedTweets(long now) {
+            return tweetsPerSec * (now - lastMillis) / 1000.0;
+        }
+
+        void update(int newTweets, long now) {
+            if (lastMillis > 0 && now > lastMillis)
+                tweetsPerSec = (tweetsPerSec + newTweets / ((now - lastMillis) / 1000.0)) / 2;
+            lastMillis = now;
+        }
     }
 }
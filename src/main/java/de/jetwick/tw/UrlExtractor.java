@@ -18,9 +18,12 @@ package de.jetwick.tw;
 import de.jetwick.util.Helper;
 import de.jetwick.data.UrlEntry;
 import de.jetwick.snacktory.JResult;
+import de.jetwick.util.UrlNormalizer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  *
@@ -49,6 +52,8 @@ public abstract class UrlExtractor extends Extractor {
     public UrlExtractor run() {
         int index = 0;
         urlEntries.clear();
+        // equivalent urls e.g. with other tracking parameters are added only once
+        Set<String> canonicalUrls = new HashSet<String>();
         for (; (index = text.indexOf("http://", index)) >= 0; index++) {
             String subStr = text.substring(index);
 
@@ -65,6 +70,10 @@ public abstract class UrlExtractor extends Extractor {
 
             if (lastIndex > 0) {
                 String url = tmpSb.toString();
+                String canonicalUrl = UrlNormalizer.normalize(url);
+                if (!canonicalUrls.add(canonicalUrl))
+                    continue;
+
                 JResult res = null;
                 try {
                     res = getInfo(url, index2);
@@ -82,7 +91,9 @@ public abstract class UrlExtractor extends Extractor {
                     entry.setResolvedTitle(res.getTitle());
 
                 entry.setResolvedDomain(Helper.extractDomain(url));
-                urlEntries.add(entry);
+                // the resolved url could be equivalent to an earlier url
+                if (canonicalUrl.equals(entry.getCanonicalUrl()) || canonicalUrls.add(entry.getCanonicalUrl()))
+                    urlEntries.add(entry);
             }
         }
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the commands in parallel: the tweets are partitioned by their
+ * user so that the tweets of one user are executed in their order and from
+ * one thread only. The commands itself have to be thread safe for tweets of
+ * different users.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ParallelCommandExecutor extends SerialCommandExecutor {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sharedService;
+    private final ExecutorService service;
+
+    public ParallelCommandExecutor(Collection<JTweet> tweets) {
+        this(tweets, getSharedService());
+    }
+
+    public ParallelCommandExecutor(Collection<JTweet> tweets, ExecutorService service) {
+        super(tweets);
+        this.service = service;
+    }
+
+    /**
+     * @return the thread pool (with daemon threads) shared by all executors
+     */
+    public static synchronized ExecutorService getSharedService() {
+        if (sharedService == null)
+            sharedService = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "command-executor-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        return sharedService;
+    }
+
+    @Override
+    public Collection<JTweet> execute() {
+        Collection<List<JTweet>> partitions = partition(getTweets());
+        if (partitions.size() <= 1)
+            return super.execute();
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(partitions.size());
+        for (List<JTweet> part : partitions) {
+            final SerialCommandExecutor exec = createExecutor(part);
+            futures.add(service.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    exec.execute();
+                }
+            }));
+        }
+
+        // wait for all partitions before an exception is thrown
+        RuntimeException ex = null;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (ex == null)
+                    ex = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+            }
+        }
+        if (ex != null)
+            throw ex;
+
+        return getTweets();
+    }
+
+    /**
+     * @return the tweets grouped by user where small groups are merged to
+     * avoid too many tasks
+     */
+    static Collection<List<JTweet>> partition(Collection<JTweet> tweets) {
+        Map<String, List<JTweet>> users = new LinkedHashMap<String, List<JTweet>>();
+        for (JTweet tw : tweets) {
+            String key = tw.getFromUser() == null ? "" : tw.getFromUser().getScreenName().toLowerCase();
+            List<JTweet> part = users.get(key);
+            if (part == null) {
+                part = new ArrayList<JTweet>();
+                users.put(key, part);
+            }
+            part.add(tw);
+        }
+
+        int minSize = (tweets.size() + 2 * THREADS - 1) / (2 * THREADS);
+        List<List<JTweet>> partitions = new ArrayList<List<JTweet>>();
+        List<JTweet> current = null;
+        for (List<JTweet> part : users.values()) {
+            if (current == null || current.size() >= minSize) {
+                current = new ArrayList<JTweet>(part);
+                partitions.add(current);
+            } else
+                current.addAll(part);
+        }
+        return partitions;
+    }
+}
@@ -45,6 +45,19 @@ public class SerialCommandExecutor {
         return this;
     }
 
+    /**
+     * @return an executor with the same commands for the specified tweets
+     */
+    protected SerialCommandExecutor createExecutor(Collection<JTweet> otherTweets) {
+        SerialCommandExecutor exec = new SerialCommandExecutor(otherTweets);
+        exec.list.addAll(list);
+        return exec;
+    }
+
+    protected Collection<JTweet> getTweets() {
+        return tweets;
+    }
+
     public Collection<JTweet> execute() {
         for (AnyExecutor cmd : list) {
             for (JTweet tw : tweets) {
@@ -93,9 +93,15 @@ public class StringFreqMap extends LinkedHashMap<String, Integer> {
     }
 
     public int orSize(Map<String, Integer> map) {
+        // same as summing the values of or(map) but without the merged map
         int counter = 0;
-        for (Entry<String, Integer> e : or(map).entrySet()) {
-            counter += e.getValue();
+        for (Entry<String, Integer> e : entrySet()) {
+            Integer other = map.get(e.getKey());
+            counter += other == null ? e.getValue() : Math.max(e.getValue(), other);
+        }
+        for (Entry<String, Integer> e : map.entrySet()) {
+            if (!containsKey(e.getKey()))
+                counter += e.getValue();
         }
         return counter;
     }
@@ -15,12 +15,12 @@
  */
 package de.jetwick.tw.cmd;
 
-import de.jetwick.data.UrlEntry;
 import de.jetwick.data.JTweet;
 import de.jetwick.util.AnyExecutor;
 import de.jetwick.tw.TweetDetector;
+import de.jetwick.tw.cmd.UserProfileCache.Profile;
+import de.jetwick.tw.cmd.UserProfileCache.TweetEntry;
 import de.jetwick.util.StopWatch;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import org.slf4j.Logger;
@@ -37,6 +37,7 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
     private StopWatch sw2 = new StopWatch();
     private StopWatch sw3 = new StopWatch();
     private StopWatch sw4 = new StopWatch();
+    private UserProfileCache profiles = new UserProfileCache(1000, 100);
 
     public TermCreateCommand() {
         //http://en.wikipedia.org/wiki/Phonetic_algorithm
@@ -69,6 +70,14 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
         return this;
     }
 
+    /**
+     * Shares the user profiles between the commands e.g. of several batches
+     */
+    public TermCreateCommand setProfiles(UserProfileCache profiles) {
+        this.profiles = profiles;
+        return this;
+    }
+
     public TermCreateCommand(boolean termRemoving) {
         this.termRemoving = termRemoving;
     }
@@ -92,25 +101,26 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
         }
 
         // now calculate quality via comparing to existing tweets
-        StringFreqMap otherTerms = new StringFreqMap();
-        StringFreqMap otherLangs = new StringFreqMap();
-        tw.setQuality((int) qual);
-        qual = checkSpamInExistingTweets(tw, otherTerms, otherLangs);
         tw.setQuality((int) qual);
-
-        // prepare indexing and remove terms which do NOT occur in other tweets (i.e. are 'unimportant')
-        if (termRemoving) {
-            Iterator<String> iter = tw.getTextTerms().keySet().iterator();
-            while (iter.hasNext()) {
-                String term = iter.next();
-                Integer integ = otherTerms.get(term);
-                if (integ == null || integ < 1)
-                    iter.remove();
+        Profile profile = getProfile(tw);
+        synchronized (profile) {
+            TweetEntry entry = addTweets(profile, tw);
+            qual = checkSpam(tw, profile, entry);
+            tw.setQuality((int) qual);
+
+            // prepare indexing and remove terms which do NOT occur in other tweets (i.e. are 'unimportant')
+            if (termRemoving) {
+                StringFreqMap terms = new StringFreqMap(tw.getTextTerms().size());
+                for (Entry<String, Integer> e : tw.getTextTerms().entrySet()) {
+                    if (profile.getOtherTermCount(entry, e.getKey()) >= 1)
+                        terms.put(e.getKey(), e.getValue());
+                }
+                tw.setTextTerms(terms);
             }
-        }
 
-        // language detection from tw.getLanguages()
-        tw.setLanguage(detectLanguage(tw, otherLangs));
+            // language detection from tw.getLanguages()
+            tw.setLanguage(detectLanguage(tw, profile.getOtherLanguages(entry)));
+        }
         return tw;
     }
 
@@ -139,42 +149,62 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
 
     public double checkSpamInExistingTweets(JTweet currentTweet,
             StringFreqMap mergedTerms, StringFreqMap mergedLangs) {
-        double qual = currentTweet.getQuality();
-
-        sw1.start();
-        StringFreqMap urlMap = new StringFreqMap();
-        for (JTweet older : currentTweet.getFromUser().getOwnTweets()) {
-            for (UrlEntry entry : older.getUrlEntries()) {
-                urlMap.inc(entry.getResolvedUrl(), 1);
-            }
+        Profile profile = getProfile(currentTweet);
+        synchronized (profile) {
+            TweetEntry entry = addTweets(profile, currentTweet);
+            profile.addOtherTerms(entry, mergedTerms);
+            mergedLangs.addValue2All(profile.getOtherLanguages(entry));
+            return checkSpam(currentTweet, profile, entry);
         }
-        sw1.stop();
+    }
 
-        sw2.start();
-        boolean sameUrl = false;
+    Profile getProfile(JTweet tw) {
+        return profiles.get(tw.getFromUser().getScreenName());
+    }
+
+    /**
+     * Adds the tweets of the user which are not yet in the profile
+     */
+    TweetEntry addTweets(Profile profile, JTweet currentTweet) {
+        // measure locally as the command could be executed in several threads
+        long start = System.nanoTime();
+        long tokenizeTime = 0;
         for (JTweet older : currentTweet.getFromUser().getOwnTweets()) {
             if (older == currentTweet)
                 continue;
 
-            sw3.start();
-            // create tags to decide if tags of currentTweet are important
-            calcTermsWithoutNoise(older);
-            sw3.stop();
-            // count only one term per tweet
-            mergedTerms.addOne2All(older.getTextTerms());
-            // count languages as they appear
-            mergedLangs.addValue2All(older.getLanguages());
-
-            // compare only to older tweets            
-            if (currentTweet.getCreatedAt().getTime() <= older.getCreatedAt().getTime())
+            TweetEntry entry = profile.get(older.getTwitterId());
+            if (entry == null) {
+                long tokenizeStart = System.nanoTime();
+                // create tags to decide if tags of currentTweet are important
+                calcTermsWithoutNoise(older);
+                tokenizeTime += System.nanoTime() - tokenizeStart;
+                profile.add(older);
+            } else if (older.getTextTerms().isEmpty())
+                // all terms were removed: restore them like calcTermsWithoutNoise
+                // would do but without tokenizing the text again
+                older.setTextTerms(new StringFreqMap(entry.getTermMap()));
+        }
+
+        // replace the entry as the tweet could come again with resolved urls or new terms
+        TweetEntry entry = profile.add(currentTweet);
+        sw3.add(tokenizeTime);
+        sw1.add(System.nanoTime() - start);
+        return entry;
+    }
+
+    double checkSpam(JTweet currentTweet, Profile profile, TweetEntry entry) {
+        double qual = currentTweet.getQuality();
+        long start = System.nanoTime();
+        long urlTime = 0;
+        boolean sameUrl = false;
+        for (TweetEntry older : profile.getTweets()) {
+            // compare only to older tweets
+            if (older == entry || entry.getCreatedAt() <= older.getCreatedAt())
                 continue;
 
             // we don't need the signature because we have the jaccard index
-            // performance improvement of comparison: use int[] instead of byte[]
-//            if (Arrays.equals(tw.getTextSignature(), older.getTextSignature()))
-//                qual = qual * 0.7;
-
-            double ji = calcJaccardIndex(currentTweet.getTextTerms(), older.getTextTerms());
+            double ji = calcJaccardIndex(entry.getTerms(), older.getTerms());
 
             if (ji >= 0.8) {
                 // nearly equal terms
@@ -187,26 +217,25 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
             }
 
             if (!sameUrl) {
-                sw4.start();
-                for (UrlEntry entry : older.getUrlEntries()) {
-                    Integer urlCounts = urlMap.get(entry.getResolvedUrl());
-                    if (urlCounts != null) {
-                        if ((urlCounts == 2 || urlCounts == 3) && currentTweet.getQualReductions() < 3) {
-                            sameUrl = true;
-                            qual *= JTweet.QUAL_LOW / 100.0;
-//                            currentTweet.addQualAction("UL," + older.getTwitterId() + ",");
-                        } else if (urlCounts > 3) {
-                            sameUrl = true;
-                            // tweeted about the identical url title!
-                            qual *= JTweet.QUAL_BAD / 100.0;
-//                            currentTweet.addQualAction("UB," + older.getTwitterId() + ",");
-                        }
+                long urlStart = System.nanoTime();
+                for (String url : older.getUrls()) {
+                    int urlCounts = profile.getUrlCount(url);
+                    if ((urlCounts == 2 || urlCounts == 3) && currentTweet.getQualReductions() < 3) {
+                        sameUrl = true;
+                        qual *= JTweet.QUAL_LOW / 100.0;
+//                        currentTweet.addQualAction("UL," + older.getTwitterId() + ",");
+                    } else if (urlCounts > 3) {
+                        sameUrl = true;
+                        // tweeted about the identical url title!
+                        qual *= JTweet.QUAL_BAD / 100.0;
+//                        currentTweet.addQualAction("UB," + older.getTwitterId() + ",");
                     }
                 }
-                sw4.stop();
+                urlTime += System.nanoTime() - urlStart;
             }
         }
-        sw2.stop();
+        sw4.add(urlTime);
+        sw2.add(System.nanoTime() - start);
         return qual;
     }
 
@@ -216,6 +245,12 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
         return a / b;
     }
 
+    public static double calcJaccardIndex(TermVector vec1, TermVector vec2) {
+        int a = vec1.andSize(vec2);
+        double b = vec1.orSize(vec2);
+        return a / b;
+    }
+
     public void calcTermsWithoutNoise(JTweet tw) {
         if (tw.getTextTerms().size() > 0)
             return;
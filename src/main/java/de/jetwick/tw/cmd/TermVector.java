@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable and compact version of a StringFreqMap to compare terms without
+ * allocations: the terms are stored as ids, sorted ascending, with their
+ * frequency in a parallel array. The ids are shared between all vectors.
+ *
+ * The vectors are kept for a long time e.g. in the DuplicateIndex, so the ids
+ * of the dictionary are never reassigned. It is bounded instead: the first
+ * MAX_TERMS terms (mostly the frequent ones) get a dictionary id, which costs
+ * roughly 100 bytes per term. All later terms get an id from their hash, so
+ * two of them could collide and would then be counted as one term.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public final class TermVector {
+
+    public static final TermVector EMPTY = new TermVector(new int[0], new short[0]);
+    static final int MAX_TERMS = 1 << 18;
+    private static final Dictionary DICTIONARY = new Dictionary(MAX_TERMS);
+    private final int[] ids;
+    private final short[] freqs;
+
+    private TermVector(int[] ids, short[] freqs) {
+        this.ids = ids;
+        this.freqs = freqs;
+    }
+
+    public static TermVector create(Map<String, Integer> terms) {
+        return create(terms, DICTIONARY);
+    }
+
+    static TermVector create(Map<String, Integer> terms, Dictionary dictionary) {
+        if (terms.isEmpty())
+            return EMPTY;
+
+        int[] ids = new int[terms.size()];
+        short[] freqs = new short[ids.length];
+        int size = 0;
+        for (Entry<String, Integer> e : terms.entrySet()) {
+            int id = dictionary.getId(e.getKey());
+            int freq = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, e.getValue()));
+            // insertion sort is sufficient for the few terms of a tweet
+            int i = size - 1;
+            while (i >= 0 && ids[i] > id) {
+                ids[i + 1] = ids[i];
+                freqs[i + 1] = freqs[i];
+                i--;
+            }
+            if (i >= 0 && ids[i] == id) {
+                // collision of two hashes: merge the terms
+                for (int j = i + 1; j < size; j++) {
+                    ids[j] = ids[j + 1];
+                    freqs[j] = freqs[j + 1];
+                }
+                freqs[i] = (short) Math.min(Short.MAX_VALUE, freqs[i] + freq);
+                continue;
+            }
+            ids[i + 1] = id;
+            freqs[i + 1] = (short) freq;
+            size++;
+        }
+
+        if (size < ids.length) {
+            int[] tmpIds = new int[size];
+            short[] tmpFreqs = new short[size];
+            System.arraycopy(ids, 0, tmpIds, 0, size);
+            System.arraycopy(freqs, 0, tmpFreqs, 0, size);
+            ids = tmpIds;
+            freqs = tmpFreqs;
+        }
+        return new TermVector(ids, freqs);
+    }
+
+    static int getId(String term) {
+        return DICTIONARY.getId(term);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getFreq(int index) {
+        return freqs[index];
+    }
+
+    /**
+     * Same as StringFreqMap.andSize: the frequencies of the smaller vector
+     * are summed for all terms occuring in both vectors.
+     */
+    public int andSize(TermVector other) {
+        short[] sumFreqs = size() > other.size() ? other.freqs : freqs;
+        int counter = 0;
+        int i = 0, j = 0;
+        while (i < ids.length && j < other.ids.length) {
+            if (ids[i] < other.ids[j])
+                i++;
+            else if (ids[i] > other.ids[j])
+                j++;
+            else {
+                counter += sumFreqs == freqs ? freqs[i] : other.freqs[j];
+                i++;
+                j++;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Same as StringFreqMap.orSize: the maximal frequency of every term
+     * occuring in one of the vectors is summed.
+     */
+    public int orSize(TermVector other) {
+        int counter = 0;
+        int i = 0, j = 0;
+        while (i < ids.length && j < other.ids.length) {
+            if (ids[i] < other.ids[j])
+                counter += freqs[i++];
+            else if (ids[i] > other.ids[j])
+                counter += other.freqs[j++];
+            else
+                counter += Math.max(freqs[i++], other.freqs[j++]);
+        }
+        while (i < ids.length) {
+            counter += freqs[i++];
+        }
+        while (j < other.ids.length) {
+            counter += other.freqs[j++];
+        }
+        return counter;
+    }
+
+    static class Dictionary {
+
+        private final int maxTerms;
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+        private final AtomicInteger idCounter = new AtomicInteger();
+
+        Dictionary(int maxTerms) {
+            this.maxTerms = maxTerms;
+        }
+
+        int getId(String term) {
+            Integer id = ids.get(term);
+            if (id != null)
+                return id;
+
+            // if the dictionary is full the id is calculated from the hash, which is
+            // negative to avoid collisions with the dictionary ids
+            if (idCounter.get() >= maxTerms)
+                return (term.hashCode() * 0x9E3779B9) | Integer.MIN_VALUE;
+
+            Integer newId = idCounter.getAndIncrement();
+            id = ids.putIfAbsent(term, newId);
+            return id == null ? newId : id;
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.UrlEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Caches the terms, languages and urls of the recent tweets per user so that
+ * the spam detection of TermCreateCommand does not need to recalculate them
+ * for every tweet of the same user. The counts over all tweets of a user are
+ * updated incrementally.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UserProfileCache {
+
+    private final int maxTweets;
+    private final Map<String, Profile> profiles;
+
+    /**
+     * @param maxUsers the least recently used profiles will be removed
+     * @param maxTweets the oldest tweets of a profile will be removed
+     */
+    public UserProfileCache(final int maxUsers, int maxTweets) {
+        this.maxTweets = maxTweets;
+        profiles = new LinkedHashMap<String, Profile>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    public synchronized Profile get(String screenName) {
+        String key = screenName.toLowerCase();
+        Profile p = profiles.get(key);
+        if (p == null) {
+            p = new Profile(maxTweets);
+            profiles.put(key, p);
+        }
+        return p;
+    }
+
+    public synchronized int size() {
+        return profiles.size();
+    }
+
+    /**
+     * The tweets of one user. Access has to be synchronized on the profile.
+     */
+    public static class Profile {
+
+        private final int maxTweets;
+        // insertion order
+        private final Map<Long, TweetEntry> tweets = new LinkedHashMap<Long, TweetEntry>();
+        // number of tweets per term id
+        private final Map<Integer, Integer> termCounts = new HashMap<Integer, Integer>();
+        private final StringFreqMap langCounts = new StringFreqMap();
+        private final StringFreqMap urlCounts = new StringFreqMap();
+
+        Profile(int maxTweets) {
+            this.maxTweets = maxTweets;
+        }
+
+        public boolean contains(long twitterId) {
+            return tweets.containsKey(twitterId);
+        }
+
+        public TweetEntry get(long twitterId) {
+            return tweets.get(twitterId);
+        }
+
+        public Collection<TweetEntry> getTweets() {
+            return tweets.values();
+        }
+
+        /**
+         * Adds the tweet with its current terms, languages and resolved urls
+         */
+        public TweetEntry add(JTweet tw) {
+            TweetEntry e = tweets.remove(tw.getTwitterId());
+            if (e != null)
+                update(e, -1);
+
+            e = new TweetEntry(tw);
+            tweets.put(tw.getTwitterId(), e);
+            update(e, 1);
+
+            Iterator<TweetEntry> iter = tweets.values().iterator();
+            while (tweets.size() > maxTweets && iter.hasNext()) {
+                TweetEntry old = iter.next();
+                if (old == e)
+                    continue;
+
+                iter.remove();
+                update(old, -1);
+            }
+            return e;
+        }
+
+        private void update(TweetEntry e, int sign) {
+            for (int i = 0; i < e.terms.size(); i++) {
+                int id = e.terms.getId(i);
+                Integer count = termCounts.get(id);
+                int newCount = (count == null ? 0 : count) + sign;
+                if (newCount <= 0)
+                    termCounts.remove(id);
+                else
+                    termCounts.put(id, newCount);
+            }
+            for (Entry<String, Integer> lang : e.languages.entrySet()) {
+                inc(langCounts, lang.getKey(), sign * lang.getValue());
+            }
+            for (String url : e.urls) {
+                inc(urlCounts, url, sign);
+            }
+        }
+
+        private static void inc(StringFreqMap map, String key, int val) {
+            map.inc(key, val);
+            if (map.get(key) == 0)
+                map.remove(key);
+        }
+
+        /**
+         * @return the number of tweets except the specified one containing the term
+         */
+        public int getOtherTermCount(TweetEntry e, String term) {
+            int id = TermVector.getId(term);
+            Integer count = termCounts.get(id);
+            if (count == null)
+                return 0;
+
+            for (int i = 0; i < e.terms.size(); i++) {
+                if (e.terms.getId(i) == id)
+                    return count - 1;
+            }
+            return count;
+        }
+
+        /**
+         * Adds the terms of all tweets except the specified one. Every term
+         * is counted only once per tweet.
+         */
+        public void addOtherTerms(TweetEntry e, StringFreqMap otherTerms) {
+            for (TweetEntry other : tweets.values()) {
+                if (other != e)
+                    otherTerms.addOne2All(other.termMap);
+            }
+        }
+
+        /**
+         * @return the summed languages of all tweets except the specified one
+         */
+        public StringFreqMap getOtherLanguages(TweetEntry e) {
+            StringFreqMap res = new StringFreqMap(langCounts);
+            for (Entry<String, Integer> lang : e.languages.entrySet()) {
+                inc(res, lang.getKey(), -lang.getValue());
+            }
+            return res;
+        }
+
+        /**
+         * @return how often the url occurs in all tweets
+         */
+        public int getUrlCount(String url) {
+            Integer count = urlCounts.get(url);
+            return count == null ? 0 : count;
+        }
+    }
+
+    public static class TweetEntry {
+
+        final long twitterId;
+        final long createdAt;
+        final TermVector terms;
+        final StringFreqMap termMap;
+        final StringFreqMap languages;
+        final List<String> urls;
+
+        TweetEntry(JTweet tw) {
+            twitterId = tw.getTwitterId();
+            createdAt = tw.getCreatedAt() == null ? 0 : tw.getCreatedAt().getTime();
+            terms = tw.getTermVector();
+            termMap = tw.getTextTerms();
+            languages = tw.getLanguages();
+            urls = new ArrayList<String>(tw.getUrlEntries().size());
+            for (UrlEntry entry : tw.getUrlEntries()) {
+                // equivalent urls are the same url
+                urls.add(entry.getCanonicalUrl());
+            }
+        }
+
+        public long getTwitterId() {
+            return twitterId;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public TermVector getTerms() {
+            return terms;
+        }
+
+        public StringFreqMap getTermMap() {
+            return termMap;
+        }
+
+        public List<String> getUrls() {
+            return urls;
+        }
+    }
+}
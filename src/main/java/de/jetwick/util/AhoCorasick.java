@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds all terms occuring in a text (like text.contains(term)) with one pass
+ * over the text instead of one pass per term.
+ *
+ * http://en.wikipedia.org/wiki/Aho%E2%80%93Corasick_string_matching_algorithm
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AhoCorasick {
+
+    private final List<String> terms;
+    private final Node root = new Node();
+
+    /**
+     * The terms are matched case sensitive. Empty terms are ignored.
+     */
+    public AhoCorasick(Collection<String> terms) {
+        this.terms = new ArrayList<String>(terms.size());
+        for (String term : terms) {
+            if (term == null || term.isEmpty())
+                continue;
+
+            Node node = root;
+            for (int i = 0; i < term.length(); i++) {
+                node = node.getOrCreate(term.charAt(i));
+            }
+            if (node.term < 0) {
+                node.term = this.terms.size();
+                this.terms.add(term);
+            }
+        }
+
+        // breadth first so that the suffix of a node is already linked
+        Queue<Node> queue = new LinkedList<Node>();
+        root.fail = root;
+        for (int i = 0; i < root.size; i++) {
+            root.next[i].fail = root;
+            queue.add(root.next[i]);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (int i = 0; i < node.size; i++) {
+                Node child = node.next[i];
+                char c = node.chars[i];
+                Node f = node.fail;
+                while (f != root && f.get(c) == null) {
+                    f = f.fail;
+                }
+                Node suffix = f.get(c);
+                child.fail = suffix == null ? root : suffix;
+                child.output = child.fail.term >= 0 ? child.fail : child.fail.output;
+                queue.add(child);
+            }
+        }
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    /**
+     * @return all terms contained in the text, every term only once and
+     * in the order of the collection from the constructor
+     */
+    public List<String> findAll(CharSequence text) {
+        BitSet found = null;
+        Node node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Node next;
+            while ((next = node.get(c)) == null && node != root) {
+                node = node.fail;
+            }
+            if (next != null)
+                node = next;
+
+            for (Node out = node.term >= 0 ? node : node.output; out != null; out = out.output) {
+                if (found == null)
+                    found = new BitSet(terms.size());
+                found.set(out.term);
+            }
+        }
+
+        if (found == null)
+            return Collections.emptyList();
+
+        List<String> res = new ArrayList<String>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            res.add(terms.get(i));
+        }
+        return res;
+    }
+
+    private static class Node {
+
+        // sorted chars of the children for a binary search
+        char[] chars = new char[0];
+        Node[] next = new Node[0];
+        int size;
+        // index of the term ending here or -1
+        int term = -1;
+        // the node of the longest proper suffix
+        Node fail;
+        // the node of the longest proper suffix which is the end of a term
+        Node output;
+
+        Node get(char c) {
+            int index = Arrays.binarySearch(chars, 0, size, c);
+            return index < 0 ? null : next[index];
+        }
+
+        Node getOrCreate(char c) {
+            int index = Arrays.binarySearch(chars, 0, size, c);
+            if (index >= 0)
+                return next[index];
+
+            index = -index - 1;
+            if (size == chars.length) {
+                int newLength = Math.max(2, size * 2);
+                chars = Arrays.copyOf(chars, newLength);
+                next = Arrays.copyOf(next, newLength);
+            }
+            System.arraycopy(chars, index, chars, index + 1, size - index);
+            System.arraycopy(next, index, next, index + 1, size - index);
+            Node n = new Node();
+            chars[index] = c;
+            next[index] = n;
+            size++;
+            return n;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import de.jetwick.snacktory.HtmlFetcher;
 import de.jetwick.snacktory.JResult;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -58,6 +59,14 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     private AtomicInteger counter = new AtomicInteger(0);
     private AtomicInteger emptyTitleCounter = new AtomicInteger(0);
     private AtomicLong start = new AtomicLong(System.nanoTime());
+    private ShortUrlResolver shortUrlResolver = new ShortUrlResolver();
+    private final HostQueue<Fetch> hostQueue = new HostQueue<Fetch>();
+    private UrlCache urlCache;
+    private AtomicInteger cacheHits = new AtomicInteger(0);
+    // the running fetches per original and resolved url so that an url is 
+    // resolved and fetched only once at a time
+    private final ConcurrentMap<String, Fetch> runningFetches = new ConcurrentHashMap<String, Fetch>();
+    private AtomicInteger coalescedCounter = new AtomicInteger(0);
 
 //    public GenericUrlResolver() {
 //        this(600);
@@ -94,6 +103,32 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
         return resolveTimeout;
     }
 
+    /**
+     * Reuses the results of earlier fetches, even from before a restart
+     */
+    public GenericUrlResolver setUrlCache(UrlCache urlCache) {
+        this.urlCache = urlCache;
+        return this;
+    }
+
+    public GenericUrlResolver setShortUrlResolver(ShortUrlResolver shortUrlResolver) {
+        this.shortUrlResolver = shortUrlResolver;
+        return this;
+    }
+
+    /**
+     * Politeness: the maximal number of concurrent fetches per host. The
+     * urls of a busy host are parked and do not block a resolver thread.
+     */
+    public GenericUrlResolver setMaxPerHost(int maxPerHost) {
+        hostQueue.setMaxPerHost(maxPerHost);
+        return this;
+    }
+
+    HostQueue<Fetch> getHostQueue() {
+        return hostQueue;
+    }
+
     public GenericUrlResolver setResolveThreads(int resolveThreads) {
         this.resolveThreads = resolveThreads;
         return this;
@@ -111,7 +146,7 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     }
 
     JTweet findUrlInCache(String url) {
-        return unresolvedCache.get(url);
+        return unresolvedCache.get(UrlNormalizer.normalize(url));
     }
 
     int getUnresolvedSize() {
@@ -156,14 +191,15 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
         // if tweet is persistent we need to queue it
         boolean directlyQueueIt = false;
         String url = tw.getUrl();
+        String key = UrlNormalizer.normalize(url);
         if (tweetSearch.tooOld(tw.getCreatedAt())) {
-            tooOldMap.put(url, OBJECT);
-            unresolvedCache.remove(url);
+            tooOldMap.put(key, OBJECT);
+            unresolvedCache.remove(key);
             directlyQueueIt = true;
         } else {
             if (Helper.isEmpty(url))
                 tweetSearch.queueObject(tw);
-            else if (tooOldMap.containsKey(url)) {
+            else if (tooOldMap.containsKey(key)) {
                 logger.warn("(2) Skipped too old tweet: " + url);
                 directlyQueueIt = true;
             } else {
@@ -177,7 +213,7 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     void putObject(JTweet tw) {
         if (isTweetInIndex(tw)) {
             // no need to queue again to aindex as we queue if article already exists on every resolve
-            unresolvedCache.remove(tw.getUrl());
+            unresolvedCache.remove(UrlNormalizer.normalize(tw.getUrl()));
             canRemoveOrigUrl(tw);
             tweetSearch.queueObject(tw);
         } else {
@@ -189,7 +225,7 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
             String url = tw.getUrl();
             boolean alreadyExistent = false;
             for (int i = 0; i < 2; i++) {
-                JTweet old = unresolvedCache.put(url, tw);
+                JTweet old = unresolvedCache.put(UrlNormalizer.normalize(url), tw);
                 if (old != null) {
                     if (tw.getTwitterId() == old.getTwitterId())
                         tw.updateFrom(old);
@@ -232,69 +268,188 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
             return false;
         }
 
-        String origUrl = tweet.getUrl();
-        String url = origUrl;
+        String url = tweet.getUrl();
+        String key = UrlNormalizer.normalize(url);
+        UrlCache.CachedUrl cached = urlCache == null ? null : urlCache.get(key);
+        if (cached != null) {
+            unresolvedCache.remove(key);
+            setResolved(tweet, cached);
+            cacheHits.addAndGet(1);
+            feed(tweet);
+            return true;
+        }
+
+        // resolve and fetch an url only once at a time
+        Fetch fetch = new Fetch(tweet, url);
+        Fetch running;
+        while ((running = runningFetches.putIfAbsent(fetch.key, fetch)) != null) {
+            if (running.join(tweet)) {
+                // the tweet gets the result of the running fetch
+                coalescedCounter.addAndGet(1);
+                return true;
+            }
+            // the running fetch is finished but not yet removed
+            if (runningFetches.replace(fetch.key, running, fetch))
+                break;
+        }
+
+        boolean handedOver = false;
         try {
-            boolean doFetch = true;
-            String resUrl = fetcher.getResolvedUrl(url, resolveTimeout);
+            String resUrl = resolveUrl(url);
             if (!Helper.isEmpty(resUrl) && resUrl.length() > url.length()) {
                 url = resUrl;
                 // check if resolved url already exists
                 if (exists(resUrl)) {
-                    unresolvedCache.remove(resUrl);
-                    doFetch = false;
+                    unresolvedCache.remove(UrlNormalizer.normalize(resUrl));
+                    handedOver = true;
+                    complete(fetch, null, false);
+                    return true;
                 }
             }
-            if (doFetch) {
-                JResult res = fetcher.fetchAndExtract(url, resolveTimeout, false);
-
-                // set resolved url
-                if (tweet.getUrlEntries().size() > 0) {
-                    UrlEntry ue = tweet.getUrlEntries().iterator().next();
-                    ue.setResolvedUrl(res.getUrl());
-                    ue.setResolvedTitle(res.getTitle());
-                    ue.setResolvedSnippet(res.getText());
-                    ue.setResolvedDomain(Helper.extractDomain(url));
-                }
 
-                if (urlTitleCleaner.contains(res.getTitle()))
-                    tweet.setQuality(20);
-
-                if (res.getTitle().isEmpty())
-                    emptyTitleCounter.addAndGet(1);
-                counter.addAndGet(1);
-                if (thread < 3) {
-                    float secs = (System.nanoTime() - start.get()) / 1e+9f;
-                    logger.info(thread + "| " + counter.get() / secs + " entries/sec"//, secs:" + secs
-                            + ", feeded:" + counter
-                            + ", resolverQueue.size:" + resolverQueue.size()
-                            + ", unresolved.size:" + unresolvedCache.size()
-                            + ", tooOld.size:" + tooOldMap.size()
-                            + ", empty titles:" + emptyTitleCounter);
-                }
+            fetch.setResolvedUrl(url);
+            running = runningFetches.putIfAbsent(fetch.resolvedKey, fetch);
+            if (running != null && running != fetch && running.join(fetch)) {
+                // another url of the same article is fetched already
+                runningFetches.remove(fetch.key, fetch);
+                handedOver = true;
+                coalescedCounter.addAndGet(1);
+                return true;
             }
 
+            // the tweets are fed after fetching - possibly from another thread
+            String host = ShortUrlResolver.getHost(url);
+            handedOver = true;
+            if (hostQueue.acquireOrPark(host, fetch))
+                fetchFromHost(thread, host, fetch);
         } catch (Exception ex) {
             //logger.info("Error while resolveAndFetch url:" + art.getUrl() + " Error:" + Helper.getMsg(ex));
-            tweet.setQuality(Math.round(tweet.getQuality() * 0.8f));
+            if (!handedOver)
+                complete(fetch, null, true);
+        }
+        return true;
+    }
+
+    /**
+     * Shortened urls are resolved with one HEAD request which stops at the
+     * first redirect.
+     */
+    String resolveUrl(String url) {
+        if (shortUrlResolver.isShortened(url)) {
+            try {
+                String resUrl = shortUrlResolver.resolve(url, resolveTimeout);
+                if (!Helper.isEmpty(resUrl))
+                    return resUrl;
+            } catch (Exception ex) {
+                logger.debug("Couldn't resolve shortened url " + url + " " + ex.getMessage());
+            }
+        }
+        return fetcher.getResolvedUrl(url, resolveTimeout);
+    }
+
+    /**
+     * Fetches the url and then the parked urls of the same host until the
+     * host is released.
+     */
+    void fetchFromHost(int thread, String host, Fetch next) {
+        while (next != null) {
+            try {
+                fetch(thread, next);
+            } finally {
+                next = hostQueue.release(host);
+            }
+        }
+    }
+
+    /**
+     * Fetches the url and feeds all tweets which joined the fetch
+     */
+    void fetch(int thread, Fetch fetch) {
+        UrlCache.CachedUrl resolved = null;
+        try {
+            JResult res = fetcher.fetchAndExtract(fetch.url, resolveTimeout, false);
+            resolved = new UrlCache.CachedUrl(res.getUrl(), res.getTitle(),
+                    res.getText(), Helper.extractDomain(fetch.url), System.currentTimeMillis());
+
+            if (res.getTitle().isEmpty())
+                emptyTitleCounter.addAndGet(1);
+            counter.addAndGet(1);
+            if (thread < 3) {
+                float secs = (System.nanoTime() - start.get()) / 1e+9f;
+                logger.info(thread + "| " + counter.get() / secs + " entries/sec"//, secs:" + secs
+                        + ", feeded:" + counter
+                        + ", resolverQueue.size:" + resolverQueue.size()
+                        + ", parked:" + hostQueue.getParked()
+                        + ", unresolved.size:" + unresolvedCache.size()
+                        + ", tooOld.size:" + tooOldMap.size()
+                        + ", empty titles:" + emptyTitleCounter
+                        + ", cache hits:" + cacheHits
+                        + ", coalesced:" + coalescedCounter);
+            }
+        } catch (Exception ex) {
+            // the quality of all tweets is reduced below
         } finally {
-            // always feed the article even if there was an error            
-            tweetSearch.queueObject(tweet);
+            complete(fetch, resolved, true);
+        }
+    }
+
+    /**
+     * Removes the fetch so that no further tweets can join and feeds all 
+     * tweets which joined it.
+     * 
+     * @param resolved the fetched url or null if it wasn't fetched
+     * @param failed whether the quality of the tweets should be reduced if 
+     * the url wasn't fetched
+     */
+    void complete(Fetch fetch, UrlCache.CachedUrl resolved, boolean failed) {
+        runningFetches.remove(fetch.key, fetch);
+        if (fetch.resolvedKey != null)
+            runningFetches.remove(fetch.resolvedKey, fetch);
+        for (JTweet tw : fetch.finish()) {
+            if (resolved != null) {
+                String origUrl = tw.getUrl();
+                setResolved(tw, resolved);
+                if (urlCache != null && !Helper.isEmpty(origUrl))
+                    urlCache.put(UrlNormalizer.normalize(origUrl), resolved);
+            } else if (failed)
+                tw.setQuality(Math.round(tw.getQuality() * 0.8f));
+
+            feed(tw);
+        }
+    }
+
+    private void setResolved(JTweet tweet, UrlCache.CachedUrl resolved) {
+        // set resolved url
+        if (tweet.getUrlEntries().size() > 0) {
+            UrlEntry ue = tweet.getUrlEntries().iterator().next();
+            ue.setResolvedUrl(resolved.getResolvedUrl());
+            ue.setResolvedTitle(resolved.getTitle());
+            ue.setResolvedSnippet(resolved.getSnippet());
+            ue.setResolvedDomain(resolved.getDomain());
+        }
+
+        if (urlTitleCleaner.contains(resolved.getTitle()))
+            tweet.setQuality(20);
+    }
 
-            // real time get ensures that we have at least the url in aindex (not so for origURL!)
-            unresolvedCache.remove(tweet.getUrl());
+    private void feed(JTweet tweet) {
+        // always feed the article even if there was an error
+        tweetSearch.queueObject(tweet);
 
-            // DISABLED for now as 
+        // real time get ensures that we have at least the url in aindex (not so for origURL!)
+        unresolvedCache.remove(UrlNormalizer.normalize(tweet.getUrl()));
+
+        // DISABLED for now as 
 //            if (!checkAgainQueue.offer(art))
 //                logger.error("checkAgainQueue full. Skipped:" + art.getUrl());
-        }
-        return true;
     }
 
     boolean isTweetInIndex(JTweet tw) {
-        JTweet existing = tweetSearch.findByTwitterId(tw.getTwitterId());
-        if (existing != null)
-            return true;
+        if (tweetSearch.getTweetFilter().mightContainTweet(tw.getTwitterId())) {
+            JTweet existing = tweetSearch.findByTwitterId(tw.getTwitterId());
+            if (existing != null)
+                return true;
+        }
 
         return exists(tw.getUrl());
     }
@@ -305,7 +460,7 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
             String oUrl = as.getOriginalUrl(tw);
             // is original url already in index?
             if (oUrl != null && exists(oUrl)) {
-                unresolvedCache.remove(oUrl);
+                unresolvedCache.remove(UrlNormalizer.normalize(oUrl));
                 remove = true;
             }
         }
@@ -313,6 +468,10 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     }
 
     boolean exists(String url) {
+        // most urls are new => avoid the query
+        if (!tweetSearch.getTweetFilter().mightContainUrl(url))
+            return false;
+
         return !tweetSearch.findByUrl(url).isEmpty();
     }
 
@@ -329,4 +488,70 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     public ElasticTweetSearch getTweetSearch() {
         return tweetSearch;
     }
+
+    /**
+     * The resolving and fetching of an url for all tweets which joined it
+     */
+    static class Fetch {
+
+        final JTweet tweet;
+        final String key;
+        // set by the resolving thread before the fetch is handed over
+        String url;
+        String resolvedKey;
+        private List<JTweet> tweets = new ArrayList<JTweet>(1);
+
+        Fetch(JTweet tweet, String url) {
+            this.tweet = tweet;
+            this.url = url;
+            key = UrlNormalizer.normalize(url);
+            tweets.add(tweet);
+        }
+
+        void setResolvedUrl(String url) {
+            this.url = url;
+            resolvedKey = UrlNormalizer.normalize(url);
+        }
+
+        /**
+         * @return false if the fetch is already finished
+         */
+        synchronized boolean join(JTweet tw) {
+            if (tweets == null)
+                return false;
+
+            tweets.add(tw);
+            return true;
+        }
+
+        /**
+         * Moves the tweets of the specified fetch to this fetch.
+         * 
+         * @return false if this fetch is already finished. Then the other
+         * fetch keeps its tweets.
+         */
+        boolean join(Fetch other) {
+            // do not hold both locks
+            List<JTweet> moved = other.finish();
+            synchronized (this) {
+                if (tweets != null) {
+                    tweets.addAll(moved);
+                    return true;
+                }
+            }
+            synchronized (other) {
+                other.tweets = moved;
+            }
+            return false;
+        }
+
+        /**
+         * @return all tweets waiting for the result of this fetch
+         */
+        synchronized List<JTweet> finish() {
+            List<JTweet> res = tweets;
+            tweets = null;
+            return res;
+        }
+    }
 }
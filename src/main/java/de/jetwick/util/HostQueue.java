@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Limits the concurrent requests per host. If a host is busy the item is
+ * parked instead of blocking the calling thread and it is handed over to the
+ * thread which releases the next slot of this host.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class HostQueue<T> {
+
+    private final Map<String, Slots<T>> hosts = new HashMap<String, Slots<T>>();
+    private int maxPerHost = 2;
+    private int parked;
+
+    public HostQueue<T> setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+        return this;
+    }
+
+    /**
+     * @return true if the caller can process the item now. It has to call
+     * release afterwards. Returns false if the item was parked.
+     */
+    public synchronized boolean acquireOrPark(String host, T item) {
+        Slots<T> slots = hosts.get(host);
+        if (slots == null) {
+            slots = new Slots<T>();
+            hosts.put(host, slots);
+        }
+        if (slots.running < maxPerHost) {
+            slots.running++;
+            return true;
+        }
+
+        slots.waiting.add(item);
+        parked++;
+        return false;
+    }
+
+    /**
+     * @return the next parked item of the host which has to be processed by
+     * the caller (the slot is still acquired) or null if the slot was released
+     */
+    public synchronized T release(String host) {
+        Slots<T> slots = hosts.get(host);
+        if (slots == null)
+            throw new IllegalStateException("host was not acquired " + host);
+
+        if (!slots.waiting.isEmpty()) {
+            parked--;
+            return slots.waiting.poll();
+        }
+
+        slots.running--;
+        if (slots.running <= 0)
+            hosts.remove(host);
+        return null;
+    }
+
+    /**
+     * @return the number of items waiting for a busy host
+     */
+    public synchronized int getParked() {
+        return parked;
+    }
+
+    public synchronized int getRunning(String host) {
+        Slots<T> slots = hosts.get(host);
+        return slots == null ? 0 : slots.running;
+    }
+
+    private static class Slots<T> {
+
+        int running;
+        final LinkedList<T> waiting = new LinkedList<T>();
+    }
+}
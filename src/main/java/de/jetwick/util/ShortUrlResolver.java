@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Resolves urls of known url shorteners with one HEAD request which stops at
+ * the first redirect. The connections are kept alive and reused by the
+ * HttpURLConnection per host.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ShortUrlResolver {
+
+    private final Set<String> hosts = new CopyOnWriteArraySet<String>(
+            Arrays.asList("t.co", "bit.ly", "j.mp", "goo.gl", "ow.ly", "tinyurl.com", "is.gd"));
+
+    public ShortUrlResolver setHosts(Collection<String> shortenerHosts) {
+        hosts.clear();
+        hosts.addAll(shortenerHosts);
+        return this;
+    }
+
+    public boolean isShortened(String url) {
+        return hosts.contains(getHost(url));
+    }
+
+    /**
+     * @return the location of the first redirect or null if there was no redirect
+     */
+    public String resolve(String urlAsString, int timeout) throws IOException {
+        URL url = new URL(urlAsString);
+        HttpURLConnection hConn = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
+        hConn.setInstanceFollowRedirects(false);
+        hConn.setRequestMethod("HEAD");
+        hConn.setConnectTimeout(timeout);
+        hConn.setReadTimeout(timeout);
+        int responseCode = hConn.getResponseCode();
+        // read the (empty) body so that the connection goes back into the keep alive cache
+        InputStream is = responseCode < 400 ? hConn.getInputStream() : hConn.getErrorStream();
+        if (is != null)
+            is.close();
+
+        String loc = hConn.getHeaderField("Location");
+        if (responseCode < 300 || responseCode >= 400 || Helper.isEmpty(loc))
+            return null;
+
+        // the location could be relative
+        return new URL(url, loc.replaceAll(" ", "+")).toString();
+    }
+
+    /**
+     * @return the lower cased host of the url or the empty string if the url is invalid
+     */
+    public static String getHost(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException ex) {
+            return "";
+        }
+    }
+}
@@ -23,6 +23,8 @@ package de.jetwick.util;
 public class StopWatch {
 
     private long lastTime;
+    private boolean started;
+    // in nano seconds
     private long time;
     private String name = "";
 
@@ -39,23 +41,34 @@ public class StopWatch {
     }
 
     public StopWatch start() {
-        lastTime = System.currentTimeMillis();
+        lastTime = System.nanoTime();
+        started = true;
         return this;
     }
 
     public StopWatch stop() {
-        if (lastTime < 0)
+        if (!started)
             return this;
-        time += System.currentTimeMillis() - lastTime;
-        lastTime = -1;
+        add(System.nanoTime() - lastTime);
+        started = false;
+        return this;
+    }
+
+    /**
+     * Adds the specified time, measured e.g. in another thread
+     *
+     * @param nanos the delta time in nano seconds
+     */
+    public synchronized StopWatch add(long nanos) {
+        time += nanos;
         return this;
     }
 
     /**
      * @return the delta time in milliseconds
      */
-    public long getTime() {
-        return time;
+    public synchronized long getTime() {
+        return time / 1000000;
     }
 
     @Override
@@ -67,7 +80,7 @@ public class StopWatch {
         return str + "time:" + getSeconds();
     }
 
-    public float getSeconds() {
-        return time / 1000f;
+    public synchronized float getSeconds() {
+        return time / 1e9f;
     }
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the resolved url, title and snippet of a short url on disk so that
+ * they survive a restart. The records are appended to a log file and only
+ * the positions of the records are kept in memory. The least recently used
+ * and too old records are removed and the log is compacted if it contains
+ * more removed than valid records.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UrlCache {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final File file;
+    private int maxSize = 100000;
+    private long maxAge = 7 * 24 * 60 * 60 * 1000L;
+    // compact only if there are some removed records
+    private int minGarbage = 1000;
+    private RandomAccessFile raf;
+    private Map<String, Pos> index;
+    private int garbage;
+
+    public UrlCache(File file) {
+        this.file = file;
+    }
+
+    public UrlCache setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public UrlCache setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+        return this;
+    }
+
+    public UrlCache setMinGarbage(int minGarbage) {
+        this.minGarbage = minGarbage;
+        return this;
+    }
+
+    /**
+     * Reads the positions of the valid records. An incomplete last record
+     * e.g. after a crash is removed.
+     */
+    public synchronized UrlCache open() throws IOException {
+        index = new LinkedHashMap<String, Pos>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pos> eldest) {
+                if (size() <= maxSize)
+                    return false;
+
+                garbage++;
+                return true;
+            }
+        };
+        garbage = 0;
+        long offset = 0;
+        long minFetchedAt = System.currentTimeMillis() - maxAge;
+        if (file.exists()) {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    int length = is.readInt();
+                    byte[] bytes = new byte[length];
+                    is.readFully(bytes);
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                    String key = readString(record);
+                    long fetchedAt = record.readLong();
+                    if (fetchedAt < minFetchedAt || index.put(key, new Pos(offset, fetchedAt)) != null)
+                        garbage++;
+                    offset += 4 + length;
+                }
+            } catch (EOFException ex) {
+                // end of the log
+            } finally {
+                is.close();
+            }
+        }
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() > offset) {
+            logger.warn("Removed incomplete record from url cache " + file);
+            raf.setLength(offset);
+        }
+        logger.info("Loaded " + index.size() + " urls from " + file);
+        return this;
+    }
+
+    public synchronized void close() throws IOException {
+        if (raf != null)
+            raf.close();
+        raf = null;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the cached values of the url or null if not cached or too old
+     */
+    public synchronized CachedUrl get(String url) {
+        Pos pos = index.get(url);
+        if (pos == null)
+            return null;
+
+        if (pos.fetchedAt < System.currentTimeMillis() - maxAge) {
+            remove(url);
+            return null;
+        }
+        try {
+            raf.seek(pos.offset);
+            byte[] bytes = new byte[raf.readInt()];
+            raf.readFully(bytes);
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (!url.equals(readString(record)))
+                throw new IOException("wrong record at " + pos.offset);
+
+            long fetchedAt = record.readLong();
+            return new CachedUrl(readString(record), readString(record), readString(record),
+                    readString(record), fetchedAt);
+        } catch (IOException ex) {
+            logger.error("Cannot read " + url + " from url cache " + file, ex);
+            remove(url);
+            return null;
+        }
+    }
+
+    public synchronized void put(String url, CachedUrl value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            writeString(record, url);
+            record.writeLong(value.getFetchedAt());
+            writeString(record, value.getResolvedUrl());
+            writeString(record, value.getTitle());
+            writeString(record, value.getSnippet());
+            writeString(record, value.getDomain());
+            record.close();
+
+            long offset = raf.length();
+            raf.seek(offset);
+            raf.writeInt(bytes.size());
+            raf.write(bytes.toByteArray());
+            if (index.put(url, new Pos(offset, value.getFetchedAt())) != null)
+                garbage++;
+
+            if (garbage > minGarbage && garbage > index.size())
+                compact();
+        } catch (IOException ex) {
+            logger.error("Cannot write " + url + " to url cache " + file, ex);
+        }
+    }
+
+    /**
+     * Unlike writeUTF this is not limited to 64KB e.g. for the text of an article
+     */
+    static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(Helper.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        // the records are read from memory
+        if (length < 0 || length > in.available())
+            throw new IOException("invalid string length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Helper.UTF8);
+    }
+
+    private void remove(String url) {
+        if (index.remove(url) != null)
+            garbage++;
+    }
+
+    synchronized int getGarbage() {
+        return garbage;
+    }
+
+    /**
+     * Rewrites the log with the valid records only
+     */
+    synchronized void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile tmpRaf = new RandomAccessFile(tmp, "rw");
+        Map<String, Pos> newPositions = new LinkedHashMap<String, Pos>();
+        try {
+            tmpRaf.setLength(0);
+            // iterate in access order to keep it
+            for (Entry<String, Pos> e : index.entrySet()) {
+                Pos pos = e.getValue();
+                raf.seek(pos.offset);
+                byte[] bytes = new byte[raf.readInt()];
+                raf.readFully(bytes);
+                newPositions.put(e.getKey(), new Pos(tmpRaf.getFilePointer(), pos.fetchedAt));
+                tmpRaf.writeInt(bytes.length);
+                tmpRaf.write(bytes);
+            }
+        } finally {
+            tmpRaf.close();
+        }
+
+        // replace the old log only with a complete file. The old log stays
+        // usable until the new one is opened.
+        if (!replaceLog(tmp)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp);
+        }
+
+        RandomAccessFile newRaf = new RandomAccessFile(file, "rw");
+        raf.close();
+        raf = newRaf;
+        index.clear();
+        index.putAll(newPositions);
+        garbage = 0;
+        logger.info("Compacted url cache " + file + " to " + index.size() + " urls");
+    }
+
+    /**
+     * Renames the compacted log to the log file. On POSIX systems the old 
+     * log is replaced atomically and the opened old log can still be read.
+     */
+    boolean replaceLog(File tmp) {
+        return tmp.renameTo(file);
+    }
+
+    private static class Pos {
+
+        final long offset;
+        final long fetchedAt;
+
+        Pos(long offset, long fetchedAt) {
+            this.offset = offset;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    public static class CachedUrl {
+
+        private final String resolvedUrl;
+        private final String title;
+        private final String snippet;
+        private final String domain;
+        private final long fetchedAt;
+
+        public CachedUrl(String resolvedUrl, String title, String snippet, String domain, long fetchedAt) {
+            this.resolvedUrl = nullToEmpty(resolvedUrl);
+            this.title = nullToEmpty(title);
+            this.snippet = nullToEmpty(snippet);
+            this.domain = nullToEmpty(domain);
+            this.fetchedAt = fetchedAt;
+        }
+
+        public String getResolvedUrl() {
+            return resolvedUrl;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getSnippet() {
+            return snippet;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        private static String nullToEmpty(String str) {
+            return str == null ? "" : str;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Creates the canonical form of an url so that equivalent urls can be
+ * compared as strings: the scheme and host are lower cased, 'www.' and the
+ * default port are removed, tracking parameters are removed, the remaining
+ * parameters are sorted and the fragment is removed. The canonical form is
+ * a key and not necessarily fetchable e.g. if a site requires 'www.'.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UrlNormalizer {
+
+    private static final Set<String> TRACKING_PARAMS = new HashSet<String>(Arrays.asList(
+            "fbclid", "gclid", "dclid", "yclid", "msclkid", "mc_cid", "mc_eid",
+            "_hsenc", "_hsmi", "igshid", "ref_src", "wt.mc_id"));
+
+    /**
+     * @return the canonical url or the trimmed input if it is not a valid url
+     */
+    public static String normalize(String url) {
+        if (url == null)
+            return null;
+
+        url = url.trim();
+        URL u;
+        try {
+            u = new URL(url);
+        } catch (MalformedURLException ex) {
+            return url;
+        }
+
+        StringBuilder sb = new StringBuilder(url.length());
+        sb.append(u.getProtocol().toLowerCase()).append("://");
+        if (u.getUserInfo() != null)
+            sb.append(u.getUserInfo()).append('@');
+
+        String host = u.getHost().toLowerCase();
+        if (host.startsWith("www."))
+            host = host.substring(4);
+        sb.append(host);
+        if (u.getPort() >= 0 && u.getPort() != u.getDefaultPort())
+            sb.append(':').append(u.getPort());
+
+        String path = u.getPath();
+        sb.append(path.isEmpty() ? "/" : path);
+
+        if (u.getQuery() != null) {
+            List<String> params = new ArrayList<String>();
+            for (String param : u.getQuery().split("&")) {
+                if (!param.isEmpty() && !isTrackingParam(param))
+                    params.add(param);
+            }
+            Collections.sort(params);
+            for (int i = 0; i < params.size(); i++) {
+                sb.append(i == 0 ? '?' : '&').append(params.get(i));
+            }
+        }
+
+        // a hashbang addresses the content e.g. twitter.com/#!/user
+        String ref = u.getRef();
+        if (ref != null && ref.startsWith("!"))
+            sb.append('#').append(ref);
+
+        return sb.toString();
+    }
+
+    static boolean isTrackingParam(String param) {
+        int index = param.indexOf('=');
+        String name = (index < 0 ? param : param.substring(0, index)).toLowerCase();
+        return name.startsWith("utm_") || TRACKING_PARAMS.contains(name);
+    }
+}
@@ -37,19 +37,6 @@ public class JTagTest {
         assertTrue(tag.nextQuery());        
     }
     
-    @Test
-    public void testOptimizeQueryFrequency() {
-        JTag st = new JTag("java");
-        st.optimizeQueryFrequency(10);
-        assertTrue(st.getQueryInterval() > 1000);
-        st.optimizeQueryFrequency(1);
-        assertTrue(st.getQueryInterval() > 1000);
-        st.optimizeQueryFrequency(100);
-        assertTrue(st.getQueryInterval() > 1000);
-        st.optimizeQueryFrequency(1000);
-        assertTrue(st.getQueryInterval() > 1000);
-    }
-
     @Test
     public void testTransform() {
         assertEquals("solr", JTag.toLowerCaseOnlyOnTerms("solR"));
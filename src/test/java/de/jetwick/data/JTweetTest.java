@@ -18,6 +18,8 @@ package de.jetwick.data;
 
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
+import de.jetwick.tw.cmd.StringFreqMap;
+import de.jetwick.tw.cmd.TermVector;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
@@ -119,6 +121,21 @@ public class JTweetTest {
         assertEquals("text", createTweet(1L, "rt @user: text").extractRTText());
     }
 
+    @Test
+    public void testTermVector() {
+        JTweet tw = createTweet(1L, "text");
+        tw.getTextTerms().inc("a", 1);
+        TermVector vec = tw.getTermVector();
+        assertEquals(1, vec.size());
+        assertEquals(1, tw.getTextTerms().size());
+        assertSame(vec, tw.getTermVector());
+
+        StringFreqMap terms = new StringFreqMap(tw.getTextTerms());
+        terms.inc("b", 1);
+        tw.setTextTerms(terms);
+        assertEquals(2, tw.getTermVector().size());
+    }
+
     JTweet createTweet(long id, String text) {
         return new JTweet(id, text, new JUser("tmp"));
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AdaptiveBatcherTest {
+
+    public AdaptiveBatcherTest() {
+    }
+
+    @Test
+    public void testFixed() {
+        AdaptiveBatcher batcher = new AdaptiveBatcher(200, 1000);
+        batcher.onBulk(100, 100000, 500);
+        assertFalse(batcher.isAdaptive());
+        assertEquals(200, batcher.getBatchSize());
+        assertEquals(1000, batcher.getLingerTime(0));
+        assertEquals(1000, batcher.getLingerTime(500));
+    }
+
+    @Test
+    public void testTargetBytes() {
+        AdaptiveBatcher batcher = new AdaptiveBatcher(200, 1000).setTargetBulkBytes(50000);
+        // no observation yet
+        assertEquals(200, batcher.getBatchSize());
+
+        batcher.onBulk(100, 100000, 10);
+        assertEquals(50, batcher.getBatchSize());
+
+        // bounds
+        batcher.setTargetBulkBytes(100);
+        assertEquals(10, batcher.getBatchSize());
+        batcher.setTargetBulkBytes(100000000);
+        assertEquals(1000, batcher.getBatchSize());
+    }
+
+    @Test
+    public void testMaxLatency() {
+        AdaptiveBatcher batcher = new AdaptiveBatcher(200, 1000).setMaxLatency(1000);
+        batcher.onBulk(100, 100000, 1000);
+        // 10ms per object
+        assertEquals(100, batcher.getBatchSize());
+        // a full batch is waiting
+        assertEquals(0, batcher.getLingerTime(100));
+        assertEquals(0, batcher.getLingerTime(300));
+        // indexing a full batch already needs the whole latency
+        assertEquals(0, batcher.getLingerTime(0));
+
+        batcher = new AdaptiveBatcher(200, 1000).setMaxLatency(1000);
+        batcher.onBulk(100, 100000, 100);
+        assertEquals(200, batcher.getBatchSize());
+        // 1000ms minus 200 * 1ms for the bulk
+        assertEquals(800, batcher.getLingerTime(0));
+        assertEquals(400, batcher.getLingerTime(100));
+    }
+
+    @Test
+    public void testMovingAverage() {
+        AdaptiveBatcher batcher = new AdaptiveBatcher(200, 1000).setTargetBulkBytes(100000);
+        batcher.onBulk(100, 100000, 10);
+        assertEquals(100, batcher.getBatchSize());
+        batcher.onBulk(100, 200000, 10);
+        // bigger objects => smaller batches, but not immediately half
+        int size = batcher.getBatchSize();
+        assertTrue(size < 100);
+        assertTrue(size > 50);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.tw.cmd.StringFreqMap;
+import de.jetwick.tw.cmd.TermVector;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class DuplicateIndexTest {
+
+    public DuplicateIndexTest() {
+    }
+
+    TermVector terms(String... terms) {
+        StringFreqMap map = new StringFreqMap();
+        for (String t : terms) {
+            map.inc(t, 1);
+        }
+        return TermVector.create(map);
+    }
+
+    @Test
+    public void testFindSimilar() {
+        long now = System.currentTimeMillis();
+        DuplicateIndex index = new DuplicateIndex(100, 1000);
+        index.add(1L, now, terms("wtf", "means", "wikileaks", "task", "force"));
+        index.add(2L, now, terms("news", "about", "wikileaks"));
+        index.add(3L, now + 10, terms("wtf", "wikileaks", "task", "force"));
+
+        TermVector query = terms("wtf", "wikileaks", "task", "force");
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 3L)), new HashSet<Long>(index.findSimilar(4L, Long.MAX_VALUE, query, 0.7)));
+        // exclude itself and younger tweets
+        assertEquals(Arrays.asList(1L), index.findSimilar(3L, now, query, 0.7));
+        assertEquals(0, index.findSimilar(4L, Long.MAX_VALUE, terms("news", "about", "java"), 0.7).size());
+
+        // replace
+        index.add(1L, now, terms("news", "about", "java"));
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList(3L), index.findSimilar(4L, Long.MAX_VALUE, query, 0.7));
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        long now = System.currentTimeMillis();
+        DuplicateIndex index = new DuplicateIndex(2, 1000);
+        index.add(1L, now, terms("a", "b", "c"));
+        index.add(2L, now, terms("a", "b", "c"));
+        index.add(3L, now, terms("a", "b", "c"));
+        assertEquals(2, index.size());
+        assertEquals(new HashSet<Long>(Arrays.asList(2L, 3L)), new HashSet<Long>(index.findSimilar(4L, Long.MAX_VALUE, terms("a", "b", "c"), 0.7)));
+
+        // too old
+        index.add(5L, now - 2000, terms("d", "e", "f"));
+        assertEquals(0, index.findSimilar(4L, Long.MAX_VALUE, terms("d", "e", "f"), 0.7).size());
+
+        index = new DuplicateIndex(10, 20);
+        index.add(1L, now, terms("a", "b", "c"));
+        Thread.sleep(50);
+        index.add(2L, System.currentTimeMillis(), terms("d", "e", "f"));
+        assertEquals(1, index.size());
+    }
+}
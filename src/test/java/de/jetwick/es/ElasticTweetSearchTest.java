@@ -25,6 +25,7 @@ import de.jetwick.data.UrlEntry;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
 import de.jetwick.util.MyDate;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,6 +36,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lucene.analysis.WhitespaceTokenizer;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -574,6 +576,20 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(3, twSearch.findByTwitterId(1L).getRetweetCount());
     }
 
+    @Test
+    public void testBatchReplyChecks() throws Exception {
+        twSearch.testUpdate(createTweet(1L, "bla bli blu", "userA"));
+        twSearch.testUpdate(createTweet(2L, "@userA bla", "userB").setInReplyTwitterId(1L));
+        assertEquals(1, twSearch.findByTwitterId(1L).getReplyCount());
+
+        // userB already replied
+        twSearch.testUpdate(Arrays.asList(
+                createTweet(3L, "@userA blu", "userB").setInReplyTwitterId(1L),
+                createTweet(4L, "@userA bli", "userC").setInReplyTwitterId(1L),
+                createTweet(5L, "@userA blo", "userD").setInReplyTwitterId(1L)));
+        assertEquals(3, twSearch.findByTwitterId(1L).getReplyCount());
+    }
+
     @Test
     public void testConnectTweets() throws Exception {
         // A has reply B        
@@ -639,6 +655,200 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(2, twSearch.findByTwitterId(1L).getRetweetCount());
     }
 
+    @Test
+    public void testParallelIndexing() {
+        twSearch.setIndexingThreads(3);
+        twSearch.setBatchSize(10);
+        List<JTweet> list = new ArrayList<JTweet>();
+        for (int i = 1; i <= 100; i++) {
+            list.add(createTweet(i, "parallel tweet number " + i, "user" + i % 7));
+        }
+        twSearch.queueObjects(list);
+        twSearch.forceEmptyQueueAndRefresh();
+
+        assertEquals(100, twSearch.countAll());
+        assertEquals(100, twSearch.getGatherCounter().getObjects());
+        assertTrue(twSearch.getGatherCounter().getBatches() >= 10);
+        assertEquals(twSearch.getGatherCounter().getBatches(), twSearch.getWriteCounter().getBatches());
+    }
+
+    @Test
+    public void testRetweetOfPreviousBatch() {
+        twSearch.setIndexingThreads(3);
+        twSearch.setMaxBulksInFlight(2);
+        twSearch.setBatchSize(1);
+        List<JTweet> list = new ArrayList<JTweet>();
+        list.add(createTweet(1L, "Very clever story telling using HTML and Javascript", "peter"));
+        list.add(createTweet(2L, "RT @Peter: Very clever story telling using HTML and Javascript", "user1"));
+        list.add(createTweet(3L, "an unrelated tweet", "user2"));
+        twSearch.queueObjects(list);
+        twSearch.forceEmptyQueueAndRefresh();
+        twSearch.forceEmptyQueueAndRefresh();
+
+        assertEquals(3, twSearch.countAll());
+        assertEquals(3, twSearch.getWriteCounter().getBatches());
+        assertEquals(0, twSearch.getBatchesInFlight());
+        assertEquals(1, twSearch.findByTwitterId(1L).getRetweetCount());
+    }
+
+    @Test
+    public void testAsyncBulkIndexing() {
+        twSearch.setMaxBulksInFlight(2);
+        twSearch.setBatchSize(10);
+        twSearch.testUpdate(createTweet(1L, "text", "peter"));
+        
+        List<JTweet> list = new ArrayList<JTweet>();
+        for (int i = 2; i <= 50; i++) {
+            list.add(createTweet(i, "async tweet number " + i, "user" + i % 7));
+        }
+        // update an existing tweet within the same bulk window
+        list.add(createTweet(1L, "text", "peter").setRetweetCount(1).setUpdatedAt(new Date()).setVersion(10));
+        twSearch.queueObjects(list);
+        twSearch.forceEmptyQueueAndRefresh();
+        twSearch.forceEmptyQueueAndRefresh();
+
+        assertEquals(0, twSearch.getBulksInFlight());
+        assertEquals(50, twSearch.countAll());
+        assertEquals(1, twSearch.findByTwitterId(1L).getRetweetCount());
+    }
+
+    @Test
+    public void testCoalesceQueuedTweets() {
+        List<JTweet> list = new ArrayList<JTweet>();
+        list.add(createTweet(1L, "text", "peter"));
+        list.add(createTweet(2L, "text2", "peter"));
+        list.add(createTweet(1L, "text", "peter").setRetweetCount(3));
+        list.add(createTweet(1L, "text", "peter").setRetweetCount(2));
+        twSearch.queueObjects(list);
+        twSearch.forceEmptyQueueAndRefresh();
+
+        assertEquals(2, twSearch.getCoalescedCount());
+        assertNull(twSearch.getQueuedObject("1"));
+        assertEquals(2, twSearch.countAll());
+        assertEquals(3, twSearch.findByTwitterId(1L).getRetweetCount());
+    }
+
+    @Test
+    public void testQueueLog() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "queuelog-" + System.nanoTime());
+        QueueLog log = new QueueLog(dir, 4096, 0);
+        log.replay();
+        log.append(QueueLog.QUEUED, createTweet(1L, "replayed", "peter"));
+        log.append(QueueLog.QUEUED, createTweet(2L, "replayed", "peter"));
+        log.close();
+
+        twSearch.setMaxBulksInFlight(2);
+        twSearch.setQueueLog(new QueueLog(dir, 4096, 0));
+        twSearch.queueObject(createTweet(3L, "text", "peter"));
+        twSearch.queueObject(createTweet(1L, "update", "peter"));
+        twSearch.forceEmptyQueueAndRefresh();
+        twSearch.forceEmptyQueueAndRefresh();
+        assertEquals(3, twSearch.countAll());
+        assertEquals(0, twSearch.getQueueLog().getPending());
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRetryFailedBatch() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "queuelog-" + System.nanoTime());
+        final AtomicInteger enrichFailures = new AtomicInteger(1);
+        final AtomicInteger writeFailures = new AtomicInteger(1);
+        ElasticTweetSearch search = new ElasticTweetSearch(getClient()) {
+
+            @Override
+            public Collection<JTweet> enrichBatch(Collection<JTweet> batch) {
+                if (enrichFailures.getAndDecrement() > 0)
+                    throw new RuntimeException("enrich failed");
+                return super.enrichBatch(batch);
+            }
+
+            @Override
+            protected void writeObjects(List<JTweet> objects, String indexName) throws InterruptedException {
+                if (writeFailures.getAndDecrement() > 0)
+                    throw new RuntimeException("no node available");
+                super.writeObjects(objects, indexName);
+            }
+        };
+        search.setTesting(true);
+        search.setQueueLog(new QueueLog(dir, 4096, 0));
+        search.queueObject(createTweet(1L, "text", "peter"));
+        // the failed objects are queued again
+        for (int i = 0; i < 20 && search.countAll() < 1; i++) {
+            search.forceEmptyQueueAndRefresh();
+        }
+        assertTrue(enrichFailures.get() < 0);
+        assertTrue(writeFailures.get() < 0);
+        assertEquals(1, search.countAll());
+        assertEquals(0, search.getFailedObjects().size());
+        assertEquals(0, search.getQueueLog().getPending());
+        search.finish();
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRetryBackoff() throws Exception {
+        twSearch.setBulkIndexingWait(100);
+        JTweet tw = createTweet(1L, "text", "peter");
+        for (int i = 0; i < 20; i++) {
+            long delay = twSearch.getRetryDelay(tw);
+            assertTrue(delay >= 100 && delay <= 200);
+        }
+        tw.setUpdateCount(4);
+        for (int i = 0; i < 20; i++) {
+            long delay = twSearch.getRetryDelay(tw);
+            assertTrue(delay >= 800 && delay <= 1600);
+        }
+        twSearch.setMaxRetryDelay(1000);
+        tw.setUpdateCount(10);
+        assertTrue(twSearch.getRetryDelay(tw) <= 1000);
+
+        twSearch.setBulkIndexingWait(1);
+        tw.setUpdateCount(0);
+        twSearch.queueFailedObject(tw);
+        assertEquals(1, twSearch.getFailedObjects().size());
+        Thread.sleep(50);
+        twSearch.forceEmptyQueueAndRefresh();
+        assertEquals(0, twSearch.getFailedObjects().size());
+        assertEquals(1, twSearch.countAll());
+    }
+
+    @Test
+    public void testFindByIds() {
+        List<JTweet> list = new ArrayList<JTweet>();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 1; i <= 250; i++) {
+            list.add(createTweet(i, "tweet " + i, "peter"));
+            ids.add(Integer.toString(i));
+        }
+        ids.add("1000");
+        twSearch.store(list, true);
+
+        // three chunks
+        List<JTweet> res = twSearch.findByIds(ids, twSearch.getIndexName());
+        assertEquals(250, res.size());
+        assertEquals("tweet 1", res.get(0).getText());
+        assertTrue(res.get(0).getVersion() > 0);
+
+        // bigger batches than the old query limit
+        list.clear();
+        for (int i = 1; i <= 260; i++) {
+            list.add(createTweet(i, "new tweet " + i, "peter"));
+        }
+        // only the new tweets are stored
+        assertEquals(10, twSearch.update(list, new Date(0), false).size());
+        twSearch.refresh();
+        assertEquals(260, twSearch.countAll());
+        assertEquals("tweet 5", twSearch.findByTwitterId(5L).getText());
+    }
+
     @Test
     public void testDoNotAddOldTweets() {
         JTweet tw = createTweet(2L, "RT @userA: bla bli blu", "userB");
@@ -1226,6 +1436,52 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(1, twSearch.findByUrl("http://fulltest.de/bla").size());        
         assertEquals(1, twSearch.findByUrl("http://orig.de").size());
         assertEquals(0, twSearch.findByUrl("http://irgendwas.de").size());
+        // equivalent url
+        assertEquals(1, twSearch.findByUrl("http://www.fulltest.de/bla?utm_source=twitter#top").size());
+    }
+
+    @Test
+    public void testFillTweetFilter() {
+        JTweet tw = createTweet(2L, "test others http://orig.de", "peter2").setCreatedAt(new Date());
+        tw.addUrlEntry(new UrlEntry(12, 26, "http://fulltest.de/bla"));
+        JTweet old = createTweet(3L, "test others", "peter2").setCreatedAt(new Date(0));
+        twSearch.update(Arrays.asList(tw, old), new Date(0), false);
+        twSearch.refresh();
+
+        // after a restart
+        ElasticTweetSearch search = new ElasticTweetSearch(getClient());
+        IndexedTweetFilter filter = search.getTweetFilter();
+        assertTrue(filter.mightContainUrl("http://irgendwas.de"));
+        search.fillTweetFilter(10);
+        assertTrue(filter.mightContainTweet(2L));
+        assertTrue(filter.mightContainUrl("http://orig.de"));
+        assertTrue(filter.mightContainUrl("http://fulltest.de/bla"));
+        assertFalse(filter.mightContainUrl("http://irgendwas.de"));
+        assertFalse(filter.mightContainTweet(3L));
+    }
+
+    @Test
+    public void testFillDuplicateIndex() {
+        MyDate dt = new MyDate();
+        twSearch.testUpdate(new JTweet(1L, "wtf means wikileaks task force", new JUser("userA")).setCreatedAt(dt.toDate()));
+
+        // after a restart the index is queried
+        ElasticTweetSearch search = new ElasticTweetSearch(getClient());
+        assertFalse(search.isDuplicateIndexFilled());
+        Map<Long, JTweet> map = new LinkedHashMap<Long, JTweet>();
+        JTweet tw = new JTweet(2L, "wtf wikileaks task force", new JUser("peter")).setCreatedAt(dt.plusMinutes(1).toDate());
+        map.put(2L, tw);
+        search.findDuplicates(map);
+        assertEquals(Arrays.asList(1L), new ArrayList<Long>(tw.getDuplicates()));
+
+        search.fillDuplicateIndex(10);
+        assertTrue(search.isDuplicateIndexFilled());
+        assertEquals(2, search.getDuplicateIndex().size());
+        tw = new JTweet(3L, "wtf wikileaks task force", new JUser("peter2")).setCreatedAt(dt.plusMinutes(2).toDate());
+        map.clear();
+        map.put(3L, tw);
+        search.findDuplicates(map);
+        assertEquals(2, tw.getDuplicates().size());
     }
 
     @Test
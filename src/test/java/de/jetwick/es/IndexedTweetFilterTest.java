@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
+import de.jetwick.data.UrlEntry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class IndexedTweetFilterTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    public IndexedTweetFilterTest() {
+    }
+
+    @Test
+    public void testExecute() {
+        IndexedTweetFilter filter = new IndexedTweetFilter(4 * DAY, DAY, 100, 0.0001);
+        JTweet tw = new JTweet(1L, "look http://t.co/abc", new JUser("userA"));
+        tw.addUrlEntry(new UrlEntry(5, 20, "http://jetwick.com/abc"));
+        filter.execute(tw);
+
+        // unknown tweets could be indexed before the start
+        assertTrue(filter.mightContainTweet(2L));
+        assertTrue(filter.mightContainUrl("http://t.co/xyz"));
+
+        filter.setComplete();
+        assertTrue(filter.mightContainTweet(1L));
+        assertTrue(filter.mightContainUrl("http://t.co/abc"));
+        assertTrue(filter.mightContainUrl("http://jetwick.com/abc"));
+        assertFalse(filter.mightContainTweet(2L));
+        assertFalse(filter.mightContainUrl("http://t.co/xyz"));
+
+        // not indexed
+        filter.execute(new JTweet(3L, "protected", new JUser("userB")).setProtected(true));
+        assertFalse(filter.mightContainTweet(3L));
+    }
+
+    @Test
+    public void testComplete() {
+        long now = System.currentTimeMillis();
+        IndexedTweetFilter filter = new IndexedTweetFilter(4 * DAY, DAY, 100, 0.0001);
+        assertFalse(filter.isComplete(now));
+        assertTrue(filter.mightContain(IndexedTweetFilter.createIdKey(1L), now + DAY));
+        // covers the whole time
+        assertTrue(filter.isComplete(now + 4 * DAY));
+        assertFalse(filter.mightContain(IndexedTweetFilter.createIdKey(1L), now + 4 * DAY));
+    }
+
+    @Test
+    public void testRotate() {
+        long now = System.currentTimeMillis();
+        IndexedTweetFilter filter = new IndexedTweetFilter(4 * DAY, DAY, 100, 0.0001);
+        filter.setComplete();
+        for (int i = 0; i < 5; i++) {
+            filter.add(new JTweet(i, "text", new JUser("userA")), now + i * DAY);
+        }
+        assertEquals(5, filter.getPartitions());
+        assertTrue(filter.mightContainTweet(0L));
+
+        filter.add(new JTweet(5L, "text", new JUser("userA")), now + 5 * DAY);
+        assertEquals(5, filter.getPartitions());
+        assertFalse(filter.mightContainTweet(0L));
+        assertTrue(filter.mightContainTweet(1L));
+        assertTrue(filter.mightContainTweet(5L));
+    }
+
+    @Test
+    public void testScale() {
+        long now = System.currentTimeMillis();
+        IndexedTweetFilter filter = new IndexedTweetFilter(4 * DAY, DAY, 10, 0.0001);
+        filter.setComplete();
+        long bytes = filter.sizeInBytes();
+        for (int i = 0; i < 100; i++) {
+            filter.add(new JTweet(i, "text", new JUser("userA")), now);
+        }
+        assertEquals(1, filter.getPartitions());
+        assertTrue(filter.sizeInBytes() > bytes);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(filter.mightContainTweet(i));
+        }
+    }
+}
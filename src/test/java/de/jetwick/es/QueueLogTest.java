@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
+import java.io.File;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class QueueLogTest {
+
+    private File dir;
+
+    public QueueLogTest() {
+    }
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "queuelog-test-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files) {
+                f.delete();
+            }
+        dir.delete();
+    }
+
+    @Test
+    public void testReplay() {
+        QueueLog log = new QueueLog(dir, 64 * 1024, 0);
+        assertEquals(0, log.replay().size());
+        long seq1 = log.append(QueueLog.QUEUED, new JTweet(1L, "text 1", new JUser("peter")));
+        long seq2 = log.append(QueueLog.FAILED, new JTweet(2L, "text 2", new JUser("peter")));
+        log.append(QueueLog.QUEUED, new JTweet(3L, "text 3", new JUser("karsten")));
+        assertEquals(3, log.getPending());
+        log.done(seq1);
+        log.close();
+
+        log = new QueueLog(dir, 64 * 1024, 0);
+        List<QueueLog.Record> records = log.replay();
+        // the first record is done but in the same segment
+        assertEquals(3, records.size());
+        assertEquals(seq2, records.get(1).getSeq());
+        assertEquals(QueueLog.FAILED, records.get(1).getType());
+        assertEquals("text 2", ((JTweet) records.get(1).getObject()).getText());
+        assertEquals("karsten", ((JTweet) records.get(2).getObject()).getFromUser().getScreenName());
+
+        // new records get higher sequence numbers
+        assertTrue(log.append(QueueLog.QUEUED, "4") > records.get(2).getSeq());
+    }
+
+    @Test
+    public void testTruncate() {
+        QueueLog log = new QueueLog(dir, 512, 0);
+        log.replay();
+        long seq = 0;
+        for (int i = 0; i < 100; i++) {
+            seq = log.append(QueueLog.QUEUED, "object number " + i);
+        }
+        assertTrue(log.getSegments() > 2);
+
+        for (long s = 1; s < seq; s++) {
+            log.done(s);
+        }
+        // only the current segment remains
+        assertEquals(1, log.getSegments());
+        assertEquals(1, log.getPending());
+        log.close();
+
+        log = new QueueLog(dir, 512, 0);
+        List<QueueLog.Record> records = log.replay();
+        assertEquals("object number 99", records.get(records.size() - 1).getObject());
+        for (QueueLog.Record rec : records) {
+            log.done(rec.getSeq());
+        }
+        log.append(QueueLog.QUEUED, "new");
+        assertEquals(1, log.getSegments());
+        assertEquals(1, dir.listFiles().length);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class RetweetOriginIndexTest {
+
+    public RetweetOriginIndexTest() {
+    }
+
+    @Test
+    public void testExecute() {
+        RetweetOriginIndex index = new RetweetOriginIndex(10, 1000);
+        index.execute(new JTweet(1L, "bla bli  blu", new JUser("userA")));
+        index.execute(new JTweet(2L, "RT @userA: bla bli blu", new JUser("userB")));
+        assertEquals(1, index.size());
+
+        JTweet rt = new JTweet(3L, "RT @userA: Bla bli blu", new JUser("userC"));
+        assertEquals(1L, (long) index.get("usera", rt.extractRTText()));
+        assertNull(index.get("userB", rt.extractRTText()));
+        assertNull(index.get("userA", "bla bli"));
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        RetweetOriginIndex index = new RetweetOriginIndex(2, 1000);
+        index.put("a", "text 1", 1L);
+        index.put("a", "text 2", 2L);
+        index.put("a", "text 3", 3L);
+        assertEquals(2, index.size());
+        assertNull(index.get("a", "text 1"));
+        assertEquals(3L, (long) index.get("a", "text 3"));
+
+        index = new RetweetOriginIndex(10, 20);
+        index.put("a", "text 1", 1L);
+        Thread.sleep(50);
+        assertNull(index.get("a", "text 1"));
+        index.put("a", "text 2", 2L);
+        assertEquals(1, index.size());
+    }
+}
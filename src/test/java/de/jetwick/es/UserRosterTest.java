@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JUser;
+import de.jetwick.util.AnyExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UserRosterTest {
+
+    private ElasticUserSearchTest tester = new ElasticUserSearchTest();
+
+    public UserRosterTest() {
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        ElasticUserSearchTest.beforeClass();
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        ElasticUserSearchTest.afterClass();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        tester.setUp();
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        ElasticUserSearch userSearch = tester.getSearch();
+        userSearch.save(new JUser("peter").setTwitterToken("xy"), false);
+        userSearch.save(new JUser("karsten"), true);
+
+        UserRoster roster = new UserRoster(userSearch);
+        assertEquals(2, roster.refresh());
+        assertEquals(2, roster.size());
+        assertEquals(1, roster.getActiveUsers().size());
+
+        // only the modified users are fetched
+        Thread.sleep(10);
+        JUser user = new JUser("karsten").setTwitterToken("ab");
+        user.setActive(true);
+        userSearch.save(user, true);
+        assertEquals(2, roster.size());
+        int fetched = roster.refresh();
+        assertTrue("fetched " + fetched, fetched >= 1);
+        assertEquals(2, roster.size());
+        assertEquals(2, roster.getActiveUsers().size());
+
+        user.setActive(false);
+        userSearch.save(user, true);
+        roster.refresh();
+        assertEquals(1, roster.getActiveUsers().size());
+
+        // the full scan removes deleted users
+        userSearch.delete(user, true);
+        roster.refresh();
+        assertEquals(2, roster.size());
+        roster.setFullRefreshInterval(0);
+        roster.refresh();
+        assertEquals(1, roster.size());
+    }
+
+    @Test
+    public void testFailedScan() throws Exception {
+        final AtomicBoolean fail = new AtomicBoolean(false);
+        ElasticUserSearch userSearch = new ElasticUserSearch(tester.getClient()) {
+
+            @Override
+            public boolean scanThis(AnyExecutor<JUser> any, QueryBuilder query, long keepTimeInMinutes, int pageSize) {
+                if (fail.get())
+                    return false;
+                return super.scanThis(any, query, keepTimeInMinutes, pageSize);
+            }
+        };
+        userSearch.save(new JUser("peter"), false);
+        userSearch.save(new JUser("karsten"), true);
+        UserRoster roster = new UserRoster(userSearch);
+        assertEquals(2, roster.refresh());
+
+        // the modified users are fetched after the failed scan
+        Thread.sleep(10);
+        JUser user = new JUser("karsten").setTwitterToken("ab");
+        user.setActive(true);
+        userSearch.save(user, true);
+        fail.set(true);
+        roster.refresh();
+        assertEquals(0, roster.getActiveUsers().size());
+        fail.set(false);
+        roster.refresh();
+        assertEquals(1, roster.getActiveUsers().size());
+
+        // an incomplete full scan keeps the users
+        roster.setFullRefreshInterval(0);
+        fail.set(true);
+        assertEquals(0, roster.refresh());
+        assertEquals(2, roster.size());
+    }
+}
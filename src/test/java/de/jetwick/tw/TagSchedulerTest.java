@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTag;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class TagSchedulerTest {
+
+    public TagSchedulerTest() {
+    }
+
+    JTag createTag(String term, double tweetsPerSec, long lastMillis, long interval) {
+        return new JTag(term).setTweetsPerSec(tweetsPerSec).setLastMillis(lastMillis).setQueryInterval(interval);
+    }
+
+    @Test
+    public void testPollMostExpectedTweets() {
+        long now = 1000 * 1000L;
+        TagScheduler scheduler = new TagScheduler().setMaxRunning(2);
+        JTag solr = createTag("solr", 0.1, now - 60 * 1000, 10 * 1000);
+        JTag java = createTag("java", 1, now - 60 * 1000, 10 * 1000);
+        JTag notDue = createTag("lucene", 10, now - 1000, 10 * 1000);
+        scheduler.setTags(Arrays.asList(solr, java, notDue));
+        scheduler.setRateLimit(-1, -1);
+
+        assertSame(java, scheduler.poll(now));
+        // spacing
+        assertNull(scheduler.poll(now));
+        assertEquals(1000, scheduler.getWaitMillis(now));
+        assertSame(solr, scheduler.poll(now + 1000));
+        // too many running
+        assertNull(scheduler.poll(now + 10 * 1000));
+        assertEquals(3, scheduler.size());
+        assertEquals(2, scheduler.getRunning());
+
+        scheduler.update(java, 0, 0);
+        assertSame(notDue, scheduler.poll(now + 10 * 1000));
+    }
+
+    @Test
+    public void testOverflowTags() {
+        TagScheduler scheduler = new TagScheduler();
+        JTag solr = createTag("solr", 1, 0, 5000);
+        scheduler.setOverflowTags(Arrays.asList(solr));
+        scheduler.setTags(Arrays.asList(new JTag("java")));
+        assertEquals(2, scheduler.size());
+        scheduler.setTags(Arrays.asList(new JTag("java")));
+        assertEquals(2, scheduler.size());
+
+        // the overflow tag can be tracked via the stream again
+        scheduler.setOverflowTags(Collections.<JTag>emptyList());
+        assertEquals(2, scheduler.size());
+        scheduler.setTags(Arrays.asList(new JTag("java")));
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void testUpdate() {
+        TagScheduler scheduler = new TagScheduler().setAlpha(0.5).setTargetTweets(20);
+        JTag tag = createTag("java", 1, 0, 5000);
+        scheduler.add(tag);
+        assertSame(tag, scheduler.poll(5000));
+
+        scheduler.update(tag, 100, 100);
+        assertEquals(1, tag.getTweetsPerSec(), 1e-6);
+        assertEquals(20 * 1000, tag.getQueryInterval());
+
+        assertSame(tag, scheduler.poll(100 * 1000));
+        scheduler.update(tag, 0, 100);
+        assertEquals(0.5, tag.getTweetsPerSec(), 1e-6);
+        assertEquals(40 * 1000, tag.getQueryInterval());
+
+        assertEquals(TagScheduler.MAX_INTERVAL, scheduler.calcInterval(0));
+        assertEquals(TagScheduler.MIN_INTERVAL, scheduler.calcInterval(1000));
+    }
+
+    @Test
+    public void testRateLimit() {
+        TagScheduler scheduler = new TagScheduler().setReservedHits(20);
+        scheduler.setRateLimit(120, 1000);
+        assertEquals(10 * 1000, scheduler.getSpacing());
+        scheduler.setRateLimit(10, 1000);
+        assertEquals(1000 * 1000, scheduler.getSpacing());
+
+        JTag tag = createTag("java", 1, 0, 5000);
+        scheduler.add(tag);
+        scheduler.pause(5000, 1000);
+        assertNull(scheduler.poll(2000));
+        assertSame(tag, scheduler.poll(6000));
+        scheduler.failed(tag, 3000, 6000);
+        assertEquals(9000, TagScheduler.getDue(tag));
+    }
+}
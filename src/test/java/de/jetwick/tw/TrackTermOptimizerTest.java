@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTag;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class TrackTermOptimizerTest {
+
+    public TrackTermOptimizerTest() {
+    }
+
+    @Test
+    public void testRemoveSubsumed() {
+        TrackTermOptimizer opt = new TrackTermOptimizer();
+        opt.optimize(Arrays.asList(new JTag("apache wicket"), new JTag("wicket"),
+                new JTag("wicket apache"), new JTag("java ee"), new JTag("ee java")),
+                new HashMap<String, Integer>(), 180);
+        assertEquals(Arrays.asList("wicket", "java ee"), opt.getTrackTerms());
+        assertEquals(1, opt.getSubsumed());
+        assertEquals(0, opt.getOverflow().size());
+    }
+
+    @Test
+    public void testRankAndOverflow() {
+        TrackTermOptimizer opt = new TrackTermOptimizer().setMaxTerms(2);
+        JTag solr = new JTag("solr").setTweetsPerSec(0.1);
+        JTag lucene = new JTag("lucene").setTweetsPerSec(0.2);
+        JTag java = new JTag("java").setTweetsPerSec(0.01);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 61; i++) {
+            sb.append("a");
+        }
+        JTag tooLong = new JTag(sb.toString()).setTweetsPerSec(0.3);
+        // the stream data is preferred
+        Map<String, Integer> termFreq = new HashMap<String, Integer>();
+        termFreq.put("java", 90);
+        opt.optimize(Arrays.asList(solr, lucene, java, tooLong), termFreq, 180);
+        assertEquals(Arrays.asList("java", "lucene"), opt.getTrackTerms());
+        assertEquals(Arrays.asList(tooLong, solr), opt.getOverflow());
+
+        // lucene was tracked but no tweet arrived
+        opt.optimize(Arrays.asList(solr, lucene, java), termFreq, 180);
+        assertEquals(Arrays.asList("java", "solr"), opt.getTrackTerms());
+        assertEquals(Arrays.asList(lucene), opt.getOverflow());
+    }
+}
@@ -163,6 +163,48 @@ public class TweetConsumerTest extends JetwickTestClass {
         assertFalse(resolver.getInputQueue().contains(tw3));
     }
 
+    @Test
+    public void testDeficitRoundRobin() {
+        BlockingQueue<JTweet> queue = tweetConsumer.register("stream", Integer.MAX_VALUE, 2);
+        BlockingQueue<JTweet> queue2 = tweetConsumer.register("rmi", Integer.MAX_VALUE, 1);
+        for (int i = 0; i < 5; i++) {
+            queue.add(createTweet(10L + i, "stream " + i, "timetabling").setCreatedAt(new Date()));
+            queue2.add(createTweet(20L + i, "rmi " + i, "timetabling").setCreatedAt(new Date()));
+        }
+        assertEquals(3, tweetConsumer.executeOneBatch());
+        assertEquals(3, queue.size());
+        assertEquals(4, queue2.size());
+
+        // half of the quantum => the deficit is used in the next round
+        TweetConsumer.QueueInfo<JTweet> qi = new TweetConsumer.QueueInfo<JTweet>("test", queue);
+        qi.setBatchSize(3);
+        assertEquals(1, tweetConsumer.feed(qi, 0.5f));
+        assertEquals(0.5f, qi.getDeficit(), 1e-6);
+        assertEquals(2, tweetConsumer.feed(qi, 0.5f));
+        assertEquals(0f, qi.getDeficit(), 1e-6);
+        resolver.getInputQueue().clear();
+    }
+
+    @Test
+    public void testAwaitInput() throws Exception {
+        final BlockingQueue<JTweet> queue = tweetConsumer.register("tweet-producer", Integer.MAX_VALUE, 1);
+        assertFalse(tweetConsumer.awaitInput(10));
+
+        new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    queue.put(createTweet(1L, "text1", "timetabling"));
+                } catch (InterruptedException ex) {
+                }
+            }
+        }.start();
+        assertTrue(tweetConsumer.awaitInput(10000));
+        assertEquals(1, queue.size());
+    }
+
     JTweet createTweet(long id, String twText, String user) {
         Random rand = new Random();
         double d = rand.nextDouble();
@@ -91,17 +91,8 @@ public class TweetProducerViaSearchTest extends JetwickTestClass {
         tagSearchTester.tearDown();
     }
 
-    @Test
-    public void testUpdateAndInitTag() {
-        // make sure that updateTag is in a transaction                
-        twProd.updateTag(new JTag("test"), 6);
-        tagSearchTester.getSearch().forceCleanTagQueueAndRefresh();
-        assertTrue(tagSearchTester.getSearch().findByTerm("test").getQueryInterval() < 10 * JTag.DEFAULT_Q_I);
-    }
-
     @Test
     public void testInitTagsNoException() {
-        twProd.updateTag(new JTag("test"), 6);
         ElasticUserSearch uSearch = mock(ElasticUserSearch.class);
         ElasticTagSearch tagSearch = mock(ElasticTagSearch.class);
         when(uSearch.getQueryTerms()).thenReturn(Arrays.asList("test OR pest"));
@@ -114,14 +105,11 @@ public class TweetProducerViaSearchTest extends JetwickTestClass {
         String str = "";
         for (JTag tag : tags) {
             str += tag.getTerm();
-            twProd.updateTag(tag, 5);
         }
         assertTrue(str.contains("test"));
         assertTrue(str.contains("pest"));
         assertTrue(str.contains("solr"));
         assertTrue(str.contains("lucene"));
-
-        twProd.updateTag(new JTag("anotherone"), 6);
     }
 
     @Test
@@ -141,4 +129,11 @@ public class TweetProducerViaSearchTest extends JetwickTestClass {
         v.add("pest");
         assertEquals("pest", v.pop());
     }
+
+    @Test
+    public void testOverflowTags() {
+        twProd.getScheduler().add(new JTag("wicket"));
+        twProd.setOverflowTags(Arrays.asList(new JTag("wicket"), new JTag("solr"), new JTag("")));
+        assertEquals(2, twProd.getScheduler().size());
+    }
 }
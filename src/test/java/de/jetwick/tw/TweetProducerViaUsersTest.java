@@ -17,6 +17,7 @@ package de.jetwick.tw;
 
 import de.jetwick.es.ElasticUserSearch;
 import de.jetwick.data.JTweet;
+import java.io.File;
 import java.util.Collection;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -114,4 +115,44 @@ public class TweetProducerViaUsersTest {
         assertEquals(2, getUserSearch().findByScreenName("test").getFriends().size());
         assertTrue(getUserSearch().findByScreenName("test").getFriends().contains("friend1oftest"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUserEntryScheduling() {
+        long now = 10 * 60 * 60 * 1000L;
+        TweetProducerViaUsers.UserEntry ue = new TweetProducerViaUsers.UserEntry(new JUser("test"));
+        assertTrue(ue.isDue(now));
+        ue.update(0, now - 60 * 1000);
+        assertFalse(ue.isDue(now));
+
+        // more active timeline => earlier due
+        ue.update(120, now);
+        assertEquals(1 + 1 / 120.0, ue.getTweetsPerSec(), 1e-6);
+        assertEquals(TweetProducerViaUsers.UserEntry.MIN_INTERVAL, ue.getInterval());
+        assertTrue(ue.isDue(now + ue.getInterval()));
+        assertTrue(ue.getExpectedTweets(now + 1000) < ue.getExpectedTweets(now + 2000));
+
+        ue.pause(60 * 60 * 1000L);
+        assertFalse(ue.isDue(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testState() throws Exception {
+        File file = File.createTempFile("friends", ".state");
+        file.deleteOnExit();
+        TweetProducerViaUsers prod = new TweetProducerViaUsers();
+        prod.setStateFile(file);
+        TweetProducerViaUsers.UserEntry ue = new TweetProducerViaUsers.UserEntry(new JUser("test"));
+        ue.setLastId(123L);
+        ue.update(0, 1000L);
+        prod.getUserMap().put("test", ue);
+        prod.saveState();
+
+        prod = new TweetProducerViaUsers();
+        prod.setStateFile(file);
+        prod.loadState();
+        ue = prod.getUserMap().get("test");
+        assertEquals(123L, ue.getLastId());
+        assertEquals(1000L, ue.getLastMillis());
+        assertEquals(1 / 60.0, ue.getTweetsPerSec(), 1e-6);
+    }
+}
@@ -15,7 +15,10 @@
  */
 package de.jetwick.tw;
 
+import de.jetwick.data.UrlEntry;
 import de.jetwick.snacktory.JResult;
+import java.util.Collection;
+import java.util.Iterator;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -43,5 +46,16 @@ public class UrlExtractorTest {
         // url extractor should be reusable
         assertEquals("http://t.co/qvfHAVC", 
                 extractor.setText("tetw http://t.co/qvfHAVC\" ").run().getUrlEntries().iterator().next().getResolvedUrl());      
-    }    
+    }
+
+    @Test
+    public void testEquivalentUrls() {
+        UrlExtractor extractor = new FakeUrlExtractor();
+        Collection<UrlEntry> entries = extractor.setText("see http://jetsli.de/a?utm_source=tw "
+                + "and http://www.jetsli.de/a and http://jetsli.de/b").run().getUrlEntries();
+        assertEquals(2, entries.size());
+        Iterator<UrlEntry> iter = entries.iterator();
+        assertEquals("http://jetsli.de/a?utm_source=tw_x", iter.next().getResolvedUrl());
+        assertEquals("http://jetsli.de/b_x", iter.next().getResolvedUrl());
+    }
 }
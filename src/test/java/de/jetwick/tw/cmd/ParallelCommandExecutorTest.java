@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
+import de.jetwick.util.AnyExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ParallelCommandExecutorTest {
+
+    public ParallelCommandExecutorTest() {
+    }
+
+    @Test
+    public void testPartition() {
+        List<JTweet> tweets = new ArrayList<JTweet>();
+        for (int i = 0; i < 100; i++) {
+            tweets.add(new JTweet(i, "text " + i, new JUser("user" + (i % 7))));
+        }
+        tweets.add(new JTweet(100, "text", new JUser("USER1")));
+
+        int count = 0;
+        Map<String, Integer> userPartition = new ConcurrentHashMap<String, Integer>();
+        Collection<List<JTweet>> partitions = ParallelCommandExecutor.partition(tweets);
+        for (List<JTweet> part : partitions) {
+            for (JTweet tw : part) {
+                String user = tw.getFromUser().getScreenName().toLowerCase();
+                Integer old = userPartition.put(user, System.identityHashCode(part));
+                assertTrue(old == null || old == System.identityHashCode(part));
+                count++;
+            }
+        }
+        assertEquals(101, count);
+    }
+
+    @Test
+    public void testExecute() {
+        List<JTweet> tweets = new ArrayList<JTweet>();
+        for (int i = 0; i < 100; i++) {
+            tweets.add(new JTweet(i, "text " + i, new JUser("user" + (i % 10))));
+        }
+
+        final Map<String, Long> lastIds = new ConcurrentHashMap<String, Long>();
+        final Map<String, Thread> threads = new ConcurrentHashMap<String, Thread>();
+        AnyExecutor<JTweet> cmd = new AnyExecutor<JTweet>() {
+
+            @Override
+            public JTweet execute(JTweet tw) {
+                String user = tw.getFromUser().getScreenName();
+                Long last = lastIds.put(user, tw.getTwitterId());
+                // order per user is kept
+                assertTrue(last == null || last < tw.getTwitterId());
+                Thread old = threads.put(user, Thread.currentThread());
+                assertTrue(old == null || old == Thread.currentThread());
+                tw.setQuality(42);
+                return tw;
+            }
+        };
+
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        Collection<JTweet> res = new ParallelCommandExecutor(tweets, service).add(cmd).execute();
+        service.shutdown();
+        assertSame(tweets, res);
+        assertEquals(10, lastIds.size());
+        for (JTweet tw : tweets) {
+            assertEquals(42, tw.getQuality());
+        }
+    }
+}
@@ -302,6 +302,42 @@ public class TermCreateCommandTest {
         assertEquals(TweetDetector.NL, tw.getLanguage());
     }
 
+    @Test
+    public void testProfilesOfOlderBatches() {
+        UserProfileCache profiles = new UserProfileCache(10, 10);
+        JTweet tw1 = createSolrTweet(1L, "A Year Without Rain Will Give Us desert", "peter");
+        new SerialCommandExecutor(Arrays.asList(tw1)).add(new TermCreateCommand().setProfiles(profiles)).execute();
+        assertEquals(JTweet.QUAL_MAX, tw1.getQuality());
+        assertEquals(1, profiles.size());
+
+        // the new user object knows only the new tweet
+        JTweet tw2 = createSolrTweet(2L, "A Year Without Rain Will Give Us desert", "Peter");
+        new SerialCommandExecutor(Arrays.asList(tw2)).add(new TermCreateCommand().setProfiles(profiles)).execute();
+        assertTrue(tw2.getQuality() < JTweet.QUAL_MAX);
+        assertTrue(tw2.getTextTerms().containsKey("desert"));
+
+        JTweet tw3 = createSolrTweet(3L, "A Year Without Rain Will Give Us desert", "peter");
+        execute(tw3);
+        assertEquals(JTweet.QUAL_MAX, tw3.getQuality());
+    }
+
+    @Test
+    public void testProfileOfEnrichedTweet() {
+        UserProfileCache profiles = new UserProfileCache(10, 10);
+        JTweet tw = createSolrTweet(1L, "A Year Without Rain http://t.co/x", "peter");
+        tw.addUrlEntry(new UrlEntry(20, 32, "http://t.co/x"));
+        new SerialCommandExecutor(Arrays.asList(tw)).add(new TermCreateCommand().setProfiles(profiles)).execute();
+        assertEquals(1, profiles.get("peter").getUrlCount("http://t.co/x"));
+
+        // the same tweet after the url resolving
+        tw = createSolrTweet(1L, "A Year Without Rain http://t.co/x", "peter");
+        tw.addUrlEntry(new UrlEntry(20, 32, "http://jetwick.com/rain"));
+        new SerialCommandExecutor(Arrays.asList(tw)).add(new TermCreateCommand().setProfiles(profiles)).execute();
+        assertEquals(0, profiles.get("peter").getUrlCount("http://t.co/x"));
+        assertEquals(1, profiles.get("peter").getUrlCount("http://jetwick.com/rain"));
+        assertEquals(Arrays.asList("http://jetwick.com/rain"), profiles.get("peter").get(1L).getUrls());
+    }
+
     @Test
     public void testLanguageDetection3() {
         JTweet tw = new JTweet(1L, "tmptext", new JUser("tmp"));
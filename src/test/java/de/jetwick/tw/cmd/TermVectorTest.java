@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class TermVectorTest {
+
+    public TermVectorTest() {
+    }
+
+    @Test
+    public void testCreate() {
+        StringFreqMap map = new StringFreqMap();
+        map.set("c", 10).set("a", 2).set("b", 20);
+        TermVector vec = TermVector.create(map);
+        assertEquals(3, vec.size());
+        for (int i = 1; i < vec.size(); i++) {
+            assertTrue(vec.getId(i - 1) < vec.getId(i));
+        }
+        assertEquals(TermVector.getId("a"), TermVector.getId("a"));
+        assertEquals(0, TermVector.create(new StringFreqMap()).size());
+    }
+
+    @Test
+    public void testAndOr() {
+        StringFreqMap map = new StringFreqMap();
+        map.set("a", 2).set("c", 10).set("b", 20).set("d", 1).set("e", 2);
+        StringFreqMap map2 = new StringFreqMap();
+        map2.set("a", 3).set("f", 11);
+        TermVector vec = TermVector.create(map);
+        TermVector vec2 = TermVector.create(map2);
+
+        // same results as for the maps
+        assertEquals(map2.andSize(map), vec2.andSize(vec));
+        assertEquals(map.andSize(map2), vec.andSize(vec2));
+        assertEquals(3, vec.andSize(vec2));
+        assertEquals(map2.orSize(map), vec2.orSize(vec));
+        assertEquals(47, vec.orSize(vec2));
+        assertEquals(TermCreateCommand.calcJaccardIndex(map, map2),
+                TermCreateCommand.calcJaccardIndex(vec, vec2), 1e-6);
+    }
+
+    @Test
+    public void testDictionaryOverflow() {
+        TermVector.Dictionary dict = new TermVector.Dictionary(2);
+        assertEquals(0, dict.getId("a"));
+        assertEquals(1, dict.getId("b"));
+        // hashed ids after the dictionary is full
+        int id = dict.getId("c");
+        assertTrue(id < 0);
+        assertEquals(id, dict.getId("c"));
+        assertEquals(0, dict.getId("a"));
+        assertEquals(2, dict.size());
+
+        StringFreqMap map = new StringFreqMap();
+        map.set("a", 2).set("c", 10).set("d", 1);
+        StringFreqMap map2 = new StringFreqMap();
+        map2.set("c", 3).set("b", 4).set("d", 5);
+        TermVector vec = TermVector.create(map, dict);
+        TermVector vec2 = TermVector.create(map2, dict);
+        assertEquals(3, vec.size());
+        for (int i = 1; i < vec.size(); i++) {
+            assertTrue(vec.getId(i - 1) < vec.getId(i));
+        }
+        assertEquals(map.andSize(map2), vec.andSize(vec2));
+        assertEquals(map.orSize(map2), vec.orSize(vec2));
+    }
+}
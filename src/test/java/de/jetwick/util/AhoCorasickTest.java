@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AhoCorasickTest {
+
+    public AhoCorasickTest() {
+    }
+
+    @Test
+    public void testFindAll() {
+        AhoCorasick ac = new AhoCorasick(Arrays.asList("wicket", "apache wicket", "he", "she", "hers", "java"));
+        assertEquals(6, ac.size());
+        assertEquals(Arrays.asList("wicket", "apache wicket", "he"), ac.findAll("using apache wicket"));
+        assertEquals(Arrays.asList("he", "she", "hers"), ac.findAll("ushers"));
+        assertEquals(Arrays.asList("java"), ac.findAll("java java"));
+        assertEquals(0, ac.findAll("nothing").size());
+        assertEquals(0, ac.findAll("").size());
+        assertEquals(0, new AhoCorasick(Collections.<String>emptyList()).findAll("test").size());
+    }
+
+    @Test
+    public void testSameAsContains() {
+        String[] terms = new String[]{"ab", "bab", "b", "abab", "c", "aab", "ba"};
+        AhoCorasick ac = new AhoCorasick(Arrays.asList(terms));
+        String[] texts = new String[]{"abab", "aabcab", "bbb", "cc", "abaab", "a"};
+        for (String text : texts) {
+            StringBuilder expected = new StringBuilder();
+            for (String term : terms) {
+                if (text.contains(term))
+                    expected.append(term).append(",");
+            }
+            StringBuilder res = new StringBuilder();
+            for (String term : ac.findAll(text)) {
+                res.append(term).append(",");
+            }
+            assertEquals(text, expected.toString(), res.toString());
+        }
+    }
+}
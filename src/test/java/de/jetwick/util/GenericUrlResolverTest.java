@@ -31,8 +31,12 @@ import de.jetwick.es.ElasticTweetSearchTest;
 import de.jetwick.snacktory.HtmlFetcher;
 import de.jetwick.snacktory.JResult;
 import de.jetwick.tw.UrlExtractor;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -178,6 +182,172 @@ public class GenericUrlResolverTest extends JetwickTestClass {
         assertEquals(10, twSearch.findByUrl("http://hiho.de").get(0).getRetweetCount());
     }   
 
+    @Test
+    public void testParkBusyHost() throws InterruptedException {
+        final List<String> fetched = new ArrayList<String>();
+        HtmlFetcher fetcher = new HtmlFetcher() {
+
+            @Override
+            public String getResolvedUrl(String urlAsString, int timeout) {
+                return urlAsString + "_r";
+            }
+
+            @Override
+            public JResult fetchAndExtract(String url, int timeout, boolean resolve) throws Exception {
+                fetched.add(url);
+                return new JResult().setUrl(url).setTitle(url + "_t");
+            }
+        };
+        resolver.setHtmlFetcher(fetcher).setMaxPerHost(1);
+        JTweet tw1 = createTweet(1L, "http://hiho.de/1");
+        JTweet tw2 = createTweet(2L, "http://hiho.de/2");
+        // another thread fetches from the host
+        GenericUrlResolver.Fetch running = new GenericUrlResolver.Fetch(tw1, "http://hiho.de/1_r");
+        assertTrue(resolver.getHostQueue().acquireOrPark("hiho.de", running));
+
+        resolver.putObject(tw2);
+        assertTrue(resolver.executeResolve(0));
+        assertEquals(1, resolver.getHostQueue().getParked());
+        assertEquals(0, fetched.size());
+        assertNotNull(resolver.findUrlInCache("http://hiho.de/2"));
+
+        // the running thread fetches the parked url too
+        resolver.fetchFromHost(0, "hiho.de", running);
+        assertEquals(Arrays.asList("http://hiho.de/1_r", "http://hiho.de/2_r"), fetched);
+        assertEquals(0, resolver.getHostQueue().getParked());
+        assertEquals(0, resolver.getHostQueue().getRunning("hiho.de"));
+
+        twSearch.forceEmptyQueueAndRefresh();
+        UrlEntry ue = twSearch.findByTwitterId(2L).getUrlEntries().iterator().next();
+        assertEquals("http://hiho.de/2_r_t", ue.getResolvedTitle());
+    }
+
+    @Test
+    public void testUrlCache() throws Exception {
+        final List<String> fetched = new ArrayList<String>();
+        HtmlFetcher fetcher = new HtmlFetcher() {
+
+            @Override
+            public String getResolvedUrl(String urlAsString, int timeout) {
+                return urlAsString + "_r";
+            }
+
+            @Override
+            public JResult fetchAndExtract(String url, int timeout, boolean resolve) throws Exception {
+                fetched.add(url);
+                return new JResult().setUrl(url).setTitle(url + "_t");
+            }
+        };
+        File file = File.createTempFile("urlcache", ".log");
+        file.delete();
+        try {
+            resolver.setHtmlFetcher(fetcher).setUrlCache(new UrlCache(file).open());
+            resolver.putObject(createTweet(1L, "http://hiho.de"));
+            assertTrue(resolver.executeResolve(0));
+            assertEquals(1, fetched.size());
+
+            // after a restart
+            resolver = new GenericUrlResolver(100).setHtmlFetcher(fetcher).setUrlCache(new UrlCache(file).open());
+            resolver.setTweetSearch(twSearch);
+            resolver.putObject(createTweet(2L, "http://hiho.de"));
+            assertTrue(resolver.executeResolve(0));
+            assertEquals(1, fetched.size());
+            twSearch.forceEmptyQueueAndRefresh();
+
+            UrlEntry ue = twSearch.findByTwitterId(2L).getUrlEntries().iterator().next();
+            assertEquals("http://hiho.de_r", ue.getResolvedUrl());
+            assertEquals("http://hiho.de_r_t", ue.getResolvedTitle());
+            assertNull(resolver.findUrlInCache("http://hiho.de"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCoalesceFetches() throws InterruptedException {
+        final List<String> fetched = new ArrayList<String>();
+        HtmlFetcher fetcher = new HtmlFetcher() {
+
+            @Override
+            public String getResolvedUrl(String urlAsString, int timeout) {
+                // different short urls for the same article
+                return "http://article.de/a#" + urlAsString;
+            }
+
+            @Override
+            public JResult fetchAndExtract(String url, int timeout, boolean resolve) throws Exception {
+                fetched.add(url);
+                return new JResult().setUrl("http://article.de/a").setTitle("title " + fetched.size());
+            }
+        };
+        resolver.setHtmlFetcher(fetcher).setMaxPerHost(1);
+        GenericUrlResolver.Fetch running = new GenericUrlResolver.Fetch(createTweet(1L, "http://other.de"), "http://article.de/b");
+        assertTrue(resolver.getHostQueue().acquireOrPark("article.de", running));
+
+        resolver.putObject(createTweet(2L, "http://t1.de"));
+        resolver.putObject(createTweet(3L, "http://t2.de"));
+        assertTrue(resolver.executeResolve(0));
+        assertTrue(resolver.executeResolve(0));
+        // the second tweet joined the fetch of the first one
+        assertEquals(1, resolver.getHostQueue().getParked());
+
+        resolver.fetchFromHost(0, "article.de", running);
+        assertEquals(Arrays.asList("http://article.de/b", "http://article.de/a#http://t1.de"), fetched);
+        twSearch.forceEmptyQueueAndRefresh();
+        for (long id = 2; id <= 3; id++) {
+            UrlEntry ue = twSearch.findByTwitterId(id).getUrlEntries().iterator().next();
+            assertEquals("http://article.de/a", ue.getResolvedUrl());
+            assertEquals("title 2", ue.getResolvedTitle());
+        }
+    }
+
+    @Test
+    public void testCoalesceResolves() throws InterruptedException {
+        final List<String> resolved = new ArrayList<String>();
+        HtmlFetcher fetcher = new HtmlFetcher() {
+
+            @Override
+            public String getResolvedUrl(String urlAsString, int timeout) {
+                resolved.add(urlAsString);
+                return "http://article.de/a";
+            }
+
+            @Override
+            public JResult fetchAndExtract(String url, int timeout, boolean resolve) throws Exception {
+                return new JResult().setUrl(url).setTitle("title");
+            }
+        };
+        resolver.setHtmlFetcher(fetcher).setMaxPerHost(1);
+        GenericUrlResolver.Fetch running = new GenericUrlResolver.Fetch(createTweet(1L, "http://other.de"), "http://article.de/b");
+        assertTrue(resolver.getHostQueue().acquireOrPark("article.de", running));
+
+        // a link storm
+        resolver.getInputQueue().put(createTweet(2L, "http://t1.de"));
+        resolver.getInputQueue().put(createTweet(3L, "http://www.t1.de/"));
+        resolver.getInputQueue().put(createTweet(4L, "http://t1.de"));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(resolver.executeResolve(0));
+        }
+        assertEquals(Arrays.asList("http://t1.de"), resolved);
+        assertEquals(1, resolver.getHostQueue().getParked());
+
+        resolver.fetchFromHost(0, "article.de", running);
+        twSearch.forceEmptyQueueAndRefresh();
+        for (long id = 2; id <= 4; id++) {
+            UrlEntry ue = twSearch.findByTwitterId(id).getUrlEntries().iterator().next();
+            assertEquals("title", ue.getResolvedTitle());
+        }
+    }
+
+    @Test
+    public void testEquivalentUrls() {
+        resolver.putObject(createTweet(1L, "http://url1.de/a?utm_source=twitter"));
+        assertNotNull(resolver.findUrlInCache("http://www.url1.de/a"));
+        resolver.putObject(createTweet(2L, "http://WWW.url1.de/a#top"));
+        assertEquals(1, resolver.getUnresolvedSize());
+        twSearch.forceEmptyQueueAndRefresh();
+    }
+
     @Test
     public void testALotIdenticalUrls() {
         JTweet a1 = createTweet(1L, "http://url1.de");
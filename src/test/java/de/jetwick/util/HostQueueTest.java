@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class HostQueueTest {
+
+    public HostQueueTest() {
+    }
+
+    @Test
+    public void testParkBusyHost() {
+        HostQueue<String> queue = new HostQueue<String>().setMaxPerHost(2);
+        assertTrue(queue.acquireOrPark("a.com", "1"));
+        assertTrue(queue.acquireOrPark("a.com", "2"));
+        assertFalse(queue.acquireOrPark("a.com", "3"));
+        assertFalse(queue.acquireOrPark("a.com", "4"));
+        assertTrue(queue.acquireOrPark("b.com", "5"));
+        assertEquals(2, queue.getParked());
+        assertEquals(2, queue.getRunning("a.com"));
+
+        // the slot is handed over to the parked items
+        assertEquals("3", queue.release("a.com"));
+        assertEquals("4", queue.release("a.com"));
+        assertEquals(0, queue.getParked());
+        assertEquals(2, queue.getRunning("a.com"));
+
+        assertNull(queue.release("a.com"));
+        assertNull(queue.release("a.com"));
+        assertEquals(0, queue.getRunning("a.com"));
+        assertNull(queue.release("b.com"));
+        assertTrue(queue.acquireOrPark("a.com", "6"));
+    }
+}
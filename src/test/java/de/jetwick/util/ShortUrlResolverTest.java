@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ShortUrlResolverTest {
+
+    private HttpServer server;
+    private String base;
+    private final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+
+    public ShortUrlResolverTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                methods.add(ex.getRequestMethod());
+                String path = ex.getRequestURI().getPath();
+                if (path.equals("/abc"))
+                    // stop here and do not follow the second redirect
+                    ex.getResponseHeaders().add("Location", "http://bit.ly/second");
+                else if (path.equals("/rel"))
+                    ex.getResponseHeaders().add("Location", "/target");
+
+                int code = path.equals("/ok") ? 200 : 301;
+                ex.sendResponseHeaders(code, -1);
+                ex.close();
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testIsShortened() {
+        ShortUrlResolver resolver = new ShortUrlResolver();
+        assertTrue(resolver.isShortened("http://t.co/abc"));
+        assertTrue(resolver.isShortened("http://BIT.ly/abc"));
+        assertFalse(resolver.isShortened("http://jetwick.com/t.co"));
+        assertFalse(resolver.isShortened("no url"));
+    }
+
+    @Test
+    public void testResolve() throws IOException {
+        ShortUrlResolver resolver = new ShortUrlResolver().setHosts(Arrays.asList("127.0.0.1"));
+        assertTrue(resolver.isShortened(base + "/abc"));
+        assertEquals("http://bit.ly/second", resolver.resolve(base + "/abc", 1000));
+        assertEquals(base + "/target", resolver.resolve(base + "/rel", 1000));
+        assertNull(resolver.resolve(base + "/ok", 1000));
+        assertEquals(Arrays.asList("HEAD", "HEAD", "HEAD"), methods);
+    }
+}
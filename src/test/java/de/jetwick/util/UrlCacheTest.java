@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import de.jetwick.util.UrlCache.CachedUrl;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UrlCacheTest {
+
+    private File file;
+
+    public UrlCacheTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("urlcache", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        long now = System.currentTimeMillis();
+        UrlCache cache = new UrlCache(file).open();
+        assertNull(cache.get("http://t.co/a"));
+        cache.put("http://t.co/a", new CachedUrl("http://jetwick.com", "title ä", "snippet\nline", "jetwick.com", now));
+        cache.put("http://t.co/b", new CachedUrl("http://b.com", "b", null, "b.com", now));
+        cache.put("http://t.co/a", new CachedUrl("http://jetwick.com/2", "title", "", "jetwick.com", now));
+        assertEquals("http://jetwick.com/2", cache.get("http://t.co/a").getResolvedUrl());
+        cache.close();
+
+        cache = new UrlCache(file).open();
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getGarbage());
+        CachedUrl res = cache.get("http://t.co/b");
+        assertEquals("http://b.com", res.getResolvedUrl());
+        assertEquals("b", res.getTitle());
+        assertEquals("", res.getSnippet());
+        assertEquals("b.com", res.getDomain());
+        assertEquals(now, res.getFetchedAt());
+        assertEquals("http://jetwick.com/2", cache.get("http://t.co/a").getResolvedUrl());
+        cache.close();
+    }
+
+    @Test
+    public void testLongSnippet() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            // 3 bytes in UTF-8
+            sb.append('\u65e5');
+        }
+        String snippet = sb.toString();
+        UrlCache cache = new UrlCache(file).open();
+        cache.put("http://t.co/a", new CachedUrl("http://jetwick.com", "title", snippet, "jetwick.com", System.currentTimeMillis()));
+        cache.close();
+
+        cache = new UrlCache(file).open();
+        assertEquals(1, cache.size());
+        assertEquals(snippet, cache.get("http://t.co/a").getSnippet());
+        cache.close();
+    }
+
+    @Test
+    public void testFailedCompaction() throws IOException {
+        long now = System.currentTimeMillis();
+        UrlCache cache = new UrlCache(file) {
+
+            @Override
+            boolean replaceLog(File tmp) {
+                return false;
+            }
+        }.open();
+        cache.put("http://t.co/a", new CachedUrl("http://a.com", "a", "", "a.com", now));
+        cache.put("http://t.co/a", new CachedUrl("http://a.com/2", "a", "", "a.com", now));
+        long length = file.length();
+        try {
+            cache.compact();
+            fail();
+        } catch (IOException ex) {
+            // the rename failed
+        }
+        // the old log is still used
+        assertEquals(length, file.length());
+        assertEquals(1, cache.getGarbage());
+        assertEquals("http://a.com/2", cache.get("http://t.co/a").getResolvedUrl());
+        cache.put("http://t.co/b", new CachedUrl("http://b.com", "b", "", "b.com", now));
+        assertEquals("http://b.com", cache.get("http://t.co/b").getResolvedUrl());
+        cache.close();
+    }
+
+    @Test
+    public void testIncompleteRecord() throws IOException {
+        long now = System.currentTimeMillis();
+        UrlCache cache = new UrlCache(file).open();
+        cache.put("http://t.co/a", new CachedUrl("http://a.com", "a", "", "a.com", now));
+        cache.close();
+        long length = file.length();
+
+        // crash while writing
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(length);
+        raf.writeInt(100);
+        raf.write(new byte[10]);
+        raf.close();
+
+        cache = new UrlCache(file).open();
+        assertEquals(length, file.length());
+        cache.put("http://t.co/b", new CachedUrl("http://b.com", "b", "", "b.com", now));
+        assertEquals("http://a.com", cache.get("http://t.co/a").getResolvedUrl());
+        assertEquals("http://b.com", cache.get("http://t.co/b").getResolvedUrl());
+        cache.close();
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        long now = System.currentTimeMillis();
+        UrlCache cache = new UrlCache(file).setMaxSize(2).setMaxAge(60 * 1000L).setMinGarbage(100).open();
+        cache.put("http://t.co/old", new CachedUrl("http://old.com", "", "", "", now - 2 * 60 * 1000L));
+        assertNull(cache.get("http://t.co/old"));
+
+        cache.put("http://t.co/a", new CachedUrl("http://a.com", "", "", "", now));
+        cache.put("http://t.co/b", new CachedUrl("http://b.com", "", "", "", now));
+        assertNotNull(cache.get("http://t.co/a"));
+        // removes the least recently used
+        cache.put("http://t.co/c", new CachedUrl("http://c.com", "", "", "", now));
+        assertNull(cache.get("http://t.co/b"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getGarbage());
+
+        long length = file.length();
+        cache.compact();
+        assertTrue(file.length() < length);
+        assertEquals(0, cache.getGarbage());
+        assertEquals("http://a.com", cache.get("http://t.co/a").getResolvedUrl());
+        assertEquals("http://c.com", cache.get("http://t.co/c").getResolvedUrl());
+        cache.close();
+
+        cache = new UrlCache(file).open();
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getGarbage());
+        cache.close();
+    }
+}
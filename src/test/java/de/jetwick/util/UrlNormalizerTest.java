@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class UrlNormalizerTest {
+
+    public UrlNormalizerTest() {
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("http://x.com/a", UrlNormalizer.normalize("http://x.com/a?utm_source=twitter&utm_medium=social"));
+        assertEquals("http://x.com/a", UrlNormalizer.normalize("HTTP://WWW.X.com/a"));
+        assertEquals("http://x.com/A?b=c", UrlNormalizer.normalize("http://x.com/A?b=c#top"));
+        assertEquals("http://x.com/", UrlNormalizer.normalize("http://x.com"));
+        assertEquals("http://x.com/", UrlNormalizer.normalize(" http://x.com:80/ "));
+        assertEquals("http://x.com:8080/", UrlNormalizer.normalize("http://x.com:8080/"));
+        assertEquals("https://x.com/", UrlNormalizer.normalize("https://x.com:443/"));
+        assertEquals("http://x.com/a?a=1&b=2&c", UrlNormalizer.normalize("http://x.com/a?c&b=2&fbclid=xy&a=1"));
+        assertEquals("http://twitter.com/#!/jetwick", UrlNormalizer.normalize("http://twitter.com/#!/jetwick"));
+        assertEquals("no url", UrlNormalizer.normalize("no url"));
+        assertNull(UrlNormalizer.normalize(null));
+    }
+
+    @Test
+    public void testIsTrackingParam() {
+        assertTrue(UrlNormalizer.isTrackingParam("utm_campaign=x"));
+        assertTrue(UrlNormalizer.isTrackingParam("UTM_Source"));
+        assertTrue(UrlNormalizer.isTrackingParam("gclid=1"));
+        assertFalse(UrlNormalizer.isTrackingParam("id=utm_source"));
+        assertFalse(UrlNormalizer.isTrackingParam("v=abc"));
+    }
+}